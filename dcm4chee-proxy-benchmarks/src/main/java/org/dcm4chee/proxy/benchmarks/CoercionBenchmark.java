@@ -0,0 +1,105 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.conf.api.AttributeCoercion;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * XSL based attribute coercion of a data set header via
+ * {@link AttributeCoercionUtils#coerceAttributes(Object, ProxyAEExtension, Attributes, AttributeCoercion)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CoercionBenchmark {
+
+    /**
+     * Number of frames of the Enhanced CT, which determines the size of the
+     * per-frame functional groups to transform.
+     */
+    @Param({ "1", "100" })
+    int frames;
+
+    private ProxyAEExtension proxyAEE;
+    private AttributeCoercion ac;
+    private Attributes attrs;
+    private File dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = File.createTempFile("coercion", null);
+        dir.delete();
+        proxyAEE = SyntheticData.createProxyAEExtension();
+        SyntheticData.addNullifyPNCoercion(proxyAEE, dir, Role.SCU);
+        attrs = SyntheticData.createEnhancedCTImage(UIDUtils.createUID(), 1, 1, frames);
+        attrs.remove(Tag.PixelData);
+        ac = proxyAEE.getAttributeCoercion(SyntheticData.CALLING_AET, attrs.getString(Tag.SOPClassUID), Role.SCU,
+                Dimse.C_STORE_RQ);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Attributes coerceAttributes() {
+        return AttributeCoercionUtils.coerceAttributes(this, proxyAEE, attrs, ac);
+    }
+}
@@ -0,0 +1,111 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.Dimse;
+import org.dcm4chee.proxy.conf.ForwardRule;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.utils.ForwardRuleUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Forward rule selection performed for every received DIMSE request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ForwardRuleBenchmark {
+
+    private static final String[] SOP_CLASSES = { UID.CTImageStorage, UID.MRImageStorage,
+            UID.SecondaryCaptureImageStorage, UID.ModalityPerformedProcedureStepSOPClass };
+
+    @Param({ "10", "100" })
+    int rules;
+
+    private ProxyAEExtension proxyAEE;
+    private List<ForwardRule> rulesByCallingAET;
+
+    @Setup
+    public void setup() {
+        proxyAEE = SyntheticData.createProxyAEExtension();
+        List<ForwardRule> fwdRules = new ArrayList<ForwardRule>(rules);
+        for (int i = 0; i < rules; i++) {
+            ForwardRule rule = new ForwardRule();
+            rule.setCommonName("Rule" + i);
+            rule.setDestinationURIs(Collections.singletonList("aet:DEST" + i));
+            // every second rule is restricted to a calling AET, every third
+            // one to a SOP class and DIMSE
+            if (i % 2 == 0)
+                rule.setCallingAETs(new ArrayList<String>(Arrays.asList(
+                        i % 4 == 0 ? SyntheticData.CALLING_AET : "OTHER" + i)));
+            if (i % 3 == 0) {
+                rule.setSopClasses(new ArrayList<String>(Arrays.asList(SOP_CLASSES[i % SOP_CLASSES.length])));
+                rule.setDimse(new ArrayList<Dimse>(Arrays.asList(Dimse.C_STORE_RQ)));
+            }
+            fwdRules.add(rule);
+        }
+        proxyAEE.setForwardRules(fwdRules);
+        rulesByCallingAET = ForwardRuleUtils.filterForwardRulesByCallingAET(proxyAEE, SyntheticData.CALLING_AET);
+    }
+
+    @Benchmark
+    public List<ForwardRule> filterForwardRulesByCallingAET() {
+        return ForwardRuleUtils.filterForwardRulesByCallingAET(proxyAEE, SyntheticData.CALLING_AET);
+    }
+
+    @Benchmark
+    public List<ForwardRule> filterForwardRulesOnDimseRQ() {
+        return ForwardRuleUtils.filterForwardRulesOnDimseRQ(rulesByCallingAET, UID.CTImageStorage,
+                Dimse.C_STORE_RQ);
+    }
+}
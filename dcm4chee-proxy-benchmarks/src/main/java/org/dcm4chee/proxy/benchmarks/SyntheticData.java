@@ -0,0 +1,268 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+
+import org.dcm4che3.conf.api.AttributeCoercion;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.Dimse;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+
+/**
+ * Creates synthetic data sets and spool directories of realistic size for the
+ * benchmarks, so runs are repeatable without access to patient data. Public,
+ * as benchmarks of package visible methods reside in the package of the
+ * benchmarked class.
+ */
+public class SyntheticData {
+
+    public static final String PROXY_AET = "DCM4CHEE-PROXY";
+    public static final String CALLING_AET = "STORESCU";
+
+    // same transformation as dcm4chee-proxy-nullify-pn.xsl
+    private static final String NULLIFY_PN_XSL = 
+            "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">\n"
+            + "  <xsl:output method=\"xml\"/>\n"
+            + "  <xsl:template match=\"/NativeDicomModel\">\n"
+            + "    <NativeDicomModel>\n"
+            + "      <xsl:apply-templates select=\"DicomAttribute[descendant::PersonName]\"/>\n"
+            + "    </NativeDicomModel>\n"
+            + "  </xsl:template>\n"
+            + "  <xsl:template match=\"@*|node()\">\n"
+            + "    <xsl:copy>\n"
+            + "      <xsl:apply-templates select=\"@*|node()[not(self::PersonName)]\" />\n"
+            + "    </xsl:copy>\n"
+            + "  </xsl:template>\n"
+            + "</xsl:stylesheet>\n";
+
+    public static ProxyAEExtension createProxyAEExtension() {
+        Device device = new Device("dcm4chee-proxy");
+        device.addDeviceExtension(new ProxyDeviceExtension());
+        ApplicationEntity ae = new ApplicationEntity(PROXY_AET);
+        device.addApplicationEntity(ae);
+        ProxyAEExtension proxyAEE = new ProxyAEExtension();
+        ae.addAEExtension(proxyAEE);
+        return proxyAEE;
+    }
+
+    /**
+     * Writes the "Remove Person Names" stylesheet to {@code dir} and
+     * configures it as C-STORE coercion for objects from {@link #CALLING_AET}.
+     */
+    public static void addNullifyPNCoercion(ProxyAEExtension proxyAEE, File dir, Role role) throws IOException {
+        dir.mkdirs();
+        File xsl = new File(dir, "nullify-pn.xsl");
+        Writer w = new FileWriter(xsl);
+        try {
+            w.write(NULLIFY_PN_XSL);
+        } finally {
+            w.close();
+        }
+        proxyAEE.addAttributeCoercion(new AttributeCoercion("Remove Person Names", null, Dimse.C_STORE_RQ, role,
+                new String[] { CALLING_AET }, xsl.toURI().toString()));
+    }
+
+    /**
+     * Returns a CT image with the given matrix size and 16 bits allocated.
+     */
+    public static Attributes createCTImage(String studyIUID, int rows, int columns) {
+        Attributes attrs = createHeader(UID.CTImageStorage, studyIUID);
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL");
+        attrs.setInt(Tag.InstanceNumber, VR.IS, 1);
+        attrs.setDouble(Tag.SliceThickness, VR.DS, 1.25);
+        attrs.setDouble(Tag.PixelSpacing, VR.DS, 0.7, 0.7);
+        attrs.setDouble(Tag.ImagePositionPatient, VR.DS, -180.0, -180.0, 42.5);
+        attrs.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+        setPixelData(attrs, rows, columns, 1);
+        return attrs;
+    }
+
+    /**
+     * Returns an Enhanced CT image with the given number of frames, each
+     * with its own frame content and plane position functional groups.
+     */
+    public static Attributes createEnhancedCTImage(String studyIUID, int rows, int columns, int frames) {
+        Attributes attrs = createHeader(UID.EnhancedCTImageStorage, studyIUID);
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.ImageType, VR.CS, "ORIGINAL", "PRIMARY", "AXIAL", "NONE");
+        attrs.setInt(Tag.InstanceNumber, VR.IS, 1);
+        attrs.setString(Tag.ContentDate, VR.DA, "20140101");
+        attrs.setString(Tag.ContentTime, VR.TM, "120000");
+        Attributes shared = new Attributes();
+        Attributes pixelMeasures = new Attributes();
+        pixelMeasures.setDouble(Tag.SliceThickness, VR.DS, 1.25);
+        pixelMeasures.setDouble(Tag.PixelSpacing, VR.DS, 0.7, 0.7);
+        shared.newSequence(Tag.PixelMeasuresSequence, 1).add(pixelMeasures);
+        Attributes orientation = new Attributes();
+        orientation.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+        shared.newSequence(Tag.PlaneOrientationSequence, 1).add(orientation);
+        attrs.newSequence(Tag.SharedFunctionalGroupsSequence, 1).add(shared);
+        Sequence perFrame = attrs.newSequence(Tag.PerFrameFunctionalGroupsSequence, frames);
+        for (int i = 0; i < frames; i++) {
+            Attributes frame = new Attributes();
+            Attributes content = new Attributes();
+            content.setInt(Tag.InStackPositionNumber, VR.UL, i + 1);
+            content.setInt(Tag.TemporalPositionIndex, VR.UL, 1);
+            frame.newSequence(Tag.FrameContentSequence, 1).add(content);
+            Attributes position = new Attributes();
+            position.setDouble(Tag.ImagePositionPatient, VR.DS, -180.0, -180.0, i * 1.25);
+            frame.newSequence(Tag.PlanePositionSequence, 1).add(position);
+            perFrame.add(frame);
+        }
+        setPixelData(attrs, rows, columns, frames);
+        return attrs;
+    }
+
+    private static Attributes createHeader(String cuid, String studyIUID) {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.SOPClassUID, VR.UI, cuid);
+        attrs.setString(Tag.SOPInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        attrs.setString(Tag.SeriesInstanceUID, VR.UI, UIDUtils.createUID());
+        attrs.setString(Tag.PatientName, VR.PN, "Benchmark^Patient");
+        attrs.setString(Tag.PatientID, VR.LO, "BENCH-0001");
+        attrs.setString(Tag.IssuerOfPatientID, VR.LO, "BENCH");
+        attrs.setString(Tag.PatientBirthDate, VR.DA, "19700101");
+        attrs.setString(Tag.PatientSex, VR.CS, "O");
+        attrs.setString(Tag.StudyDate, VR.DA, "20140101");
+        attrs.setString(Tag.StudyTime, VR.TM, "120000");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A0001");
+        attrs.setString(Tag.ReferringPhysicianName, VR.PN, "Referring^Physician");
+        attrs.setString(Tag.StudyID, VR.SH, "1");
+        attrs.setInt(Tag.SeriesNumber, VR.IS, 1);
+        attrs.setString(Tag.InstitutionName, VR.LO, "Benchmark Hospital");
+        attrs.setString(Tag.StationName, VR.SH, "CT01");
+        attrs.setString(Tag.Manufacturer, VR.LO, "dcm4che");
+        return attrs;
+    }
+
+    private static void setPixelData(Attributes attrs, int rows, int columns, int frames) {
+        attrs.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        attrs.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        if (frames > 1)
+            attrs.setInt(Tag.NumberOfFrames, VR.IS, frames);
+        attrs.setInt(Tag.Rows, VR.US, rows);
+        attrs.setInt(Tag.Columns, VR.US, columns);
+        attrs.setInt(Tag.BitsAllocated, VR.US, 16);
+        attrs.setInt(Tag.BitsStored, VR.US, 12);
+        attrs.setInt(Tag.HighBit, VR.US, 11);
+        attrs.setInt(Tag.PixelRepresentation, VR.US, 0);
+        byte[] pixels = new byte[rows * columns * 2 * frames];
+        for (int i = 0; i < pixels.length; i += 2)
+            pixels[i] = (byte) i;
+        attrs.setBytes(Tag.PixelData, VR.OW, pixels);
+    }
+
+    public static byte[] encode(Attributes attrs, String tsuid) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DicomOutputStream out = new DicomOutputStream(bout, tsuid);
+        try {
+            out.writeDataset(null, attrs);
+        } finally {
+            out.close();
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Fills {@code dir} with {@code count} spooled objects of the given study
+     * count, each as a dcmNNN.dcm file with its dcmNNN.info file, laid out
+     * like the C-STORE spool directory of the proxy.
+     */
+    public static File[] createSpoolDirectory(File dir, int count, int studies) throws IOException {
+        dir.mkdirs();
+        String[] studyIUIDs = new String[studies];
+        for (int i = 0; i < studies; i++)
+            studyIUIDs[i] = UIDUtils.createUID();
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            Attributes attrs = createCTImage(studyIUIDs[i % studies], 64, 64);
+            File file = new File(dir, "dcm" + i + ".dcm");
+            DicomOutputStream out = new DicomOutputStream(file);
+            try {
+                out.writeDataset(attrs.createFileMetaInformation(UID.ExplicitVRLittleEndian), attrs);
+            } finally {
+                out.close();
+            }
+            Properties prop = new Properties();
+            prop.setProperty("hostname", "localhost");
+            prop.setProperty("patient-id", attrs.getString(Tag.PatientID));
+            prop.setProperty("study-iuid", attrs.getString(Tag.StudyInstanceUID));
+            prop.setProperty("sop-instance-uid", attrs.getString(Tag.SOPInstanceUID));
+            prop.setProperty("sop-class-uid", attrs.getString(Tag.SOPClassUID));
+            prop.setProperty("transfer-syntax-uid", UID.ExplicitVRLittleEndian);
+            prop.setProperty("source-aet", CALLING_AET);
+            prop.setProperty("priority", Integer.toString(i % 3));
+            FileOutputStream infoOut = new FileOutputStream(new File(dir, "dcm" + i + ".info"));
+            try {
+                prop.store(infoOut, null);
+            } finally {
+                infoOut.close();
+            }
+            files[i] = file;
+        }
+        return files;
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                deleteRecursively(child);
+        file.delete();
+    }
+}
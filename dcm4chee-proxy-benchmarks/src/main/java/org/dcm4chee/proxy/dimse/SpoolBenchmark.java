@@ -0,0 +1,113 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.dimse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.proxy.benchmarks.SyntheticData;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Spooling of a received C-STORE data set by
+ * {@link CStore#spoolWithStreamCoercion}: header parsed up to the pixel data,
+ * coerced, written with the file meta information, pixel data copied behind
+ * it and the spool file synced to disk. The PDV stream of a live association
+ * is replaced by an in-memory stream of the encoded data set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpoolBenchmark {
+
+    @Param({ "256", "512" })
+    int matrix;
+
+    @Param({ "false", "true" })
+    boolean coercion;
+
+    private ProxyAEExtension proxyAEE;
+    private File dir;
+    private File file;
+    private byte[] dataset;
+    private Attributes fmi;
+    private String cuid;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = File.createTempFile("spool", null);
+        dir.delete();
+        dir.mkdirs();
+        proxyAEE = SyntheticData.createProxyAEExtension();
+        if (coercion)
+            SyntheticData.addNullifyPNCoercion(proxyAEE, dir, Role.SCU);
+        Attributes attrs = SyntheticData.createCTImage(UIDUtils.createUID(), matrix, matrix);
+        cuid = attrs.getString(Tag.SOPClassUID);
+        fmi = attrs.createFileMetaInformation(UID.ExplicitVRLittleEndian);
+        dataset = SyntheticData.encode(attrs, UID.ExplicitVRLittleEndian);
+        file = new File(dir, "dcm0.dcm.part");
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Attributes spool() throws IOException {
+        return CStore.spoolWithStreamCoercion(proxyAEE, this, SyntheticData.CALLING_AET, SyntheticData.PROXY_AET,
+                cuid, new ByteArrayInputStream(dataset), file, fmi);
+    }
+}
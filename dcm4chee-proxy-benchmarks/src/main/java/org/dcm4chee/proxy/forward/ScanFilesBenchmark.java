@@ -0,0 +1,110 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.forward;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4chee.proxy.benchmarks.SyntheticData;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Scan of a C-STORE spool directory into forward tasks by
+ * {@link ForwardFiles#scanFiles}, including the
+ * rename of each file to .snd and the load of its info file. Each
+ * invocation starts from a freshly restored spool directory, therefore this
+ * runs in single shot mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanFilesBenchmark {
+
+    @Param({ "1000", "10000" })
+    int files;
+
+    @Param({ "1", "4" })
+    int parallelAssociations;
+
+    private ProxyAEExtension proxyAEE;
+    private ForwardFiles forwardFiles;
+    private File dir;
+    private File[] spooled;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = File.createTempFile("spool", null);
+        dir.delete();
+        proxyAEE = SyntheticData.createProxyAEExtension();
+        spooled = SyntheticData.createSpoolDirectory(dir, files, Math.max(1, files / 100));
+        forwardFiles = new ForwardFiles(null,
+                new ForwardAssociationPool(proxyAEE.getApplicationEntity().getDevice()));
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreSpoolDirectory() throws IOException {
+        for (File file : spooled) {
+            File snd = new File(file.getPath() + ".snd");
+            if (snd.exists() && !snd.renameTo(file))
+                throw new IOException("Failed to rename " + snd + " to " + file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Collection<ForwardTask> scanFiles() {
+        return forwardFiles.scanFiles(proxyAEE, SyntheticData.PROXY_AET, spooled, parallelAssociations);
+    }
+}
@@ -51,6 +51,7 @@ public class CMoveInfoObject {
     private String callingAET;
     private int sourceMsgId;
     private ForwardRule rule;
+    private final long created = System.currentTimeMillis();
 
     public CMoveInfoObject(String moveOriginatorAET, String moveDestinationAET, String calledAET, String callingAET,
             int sourceMsgId, ForwardRule rule) {
@@ -110,4 +111,8 @@ public class CMoveInfoObject {
         this.rule = rule;
     }
 
+    public long getCreated() {
+        return created;
+    }
+
 }
@@ -0,0 +1,115 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.common;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message IDs of C-MOVE requests forwarded with a different Calling AET, by
+ * which C-STORE sub-operations are associated with their C-MOVE request
+ * (Move Originator Message ID). Message IDs are handed out round robin over
+ * the whole range of the US value representation.
+ */
+public class CMoveMessageIDRegistry {
+
+    public static final int MAX_MESSAGE_ID = 0xFFFF;
+
+    private final ConcurrentHashMap<Integer, CMoveInfoObject> infoObjects =
+            new ConcurrentHashMap<Integer, CMoveInfoObject>();
+    private final AtomicInteger next;
+
+    public CMoveMessageIDRegistry() {
+        this(0);
+    }
+
+    CMoveMessageIDRegistry(int next) {
+        this.next = new AtomicInteger(next);
+    }
+
+    /**
+     * Returns a free Message ID for {@code info}, or -1 if all Message IDs
+     * are in use.
+     */
+    public int register(CMoveInfoObject info) {
+        for (int i = 0; i < MAX_MESSAGE_ID; i++) {
+            int msgId = (next.getAndIncrement() & Integer.MAX_VALUE) % MAX_MESSAGE_ID + 1;
+            if (infoObjects.putIfAbsent(msgId, info) == null)
+                return msgId;
+        }
+        return -1;
+    }
+
+    public CMoveInfoObject get(int msgId) {
+        return infoObjects.get(msgId);
+    }
+
+    public void remove(int msgId) {
+        infoObjects.remove(msgId);
+    }
+
+    /**
+     * Removes Message ID {@code msgId}, if it is still registered for
+     * {@code info}.
+     */
+    public boolean remove(int msgId, CMoveInfoObject info) {
+        return infoObjects.remove(msgId, info);
+    }
+
+    /**
+     * Removes Message IDs registered before {@code maxAge} ms, e.g. of C-MOVE
+     * requests which were never answered, and returns their number.
+     */
+    public int removeExpired(long maxAge) {
+        long before = System.currentTimeMillis() - maxAge;
+        int count = 0;
+        for (Iterator<Map.Entry<Integer, CMoveInfoObject>> iter = infoObjects.entrySet().iterator(); iter
+                .hasNext();) {
+            Map.Entry<Integer, CMoveInfoObject> entry = iter.next();
+            if (entry.getValue().getCreated() < before && infoObjects.remove(entry.getKey(), entry.getValue()))
+                count++;
+        }
+        return count;
+    }
+
+    public int size() {
+        return infoObjects.size();
+    }
+}
@@ -51,6 +51,11 @@ public class ForwardOption implements Serializable {
     private Schedule schedule;
     private String description;
     private boolean convertEmf2Sf;
+    private int maxOpsInvoked;
+    private int parallelAssociations = 1;
+    private int queryTimeout;
+    private boolean retrieveBridge;
+    private String wadoRsURL;
 
     public Schedule getSchedule() {
         return schedule;
@@ -70,5 +75,37 @@ public class ForwardOption implements Serializable {
     public void setConvertEmf2Sf(boolean convertEmf2Sf) {
         this.convertEmf2Sf = convertEmf2Sf;
     }
+    public int getMaxOpsInvoked() {
+        return maxOpsInvoked;
+    }
+    public void setMaxOpsInvoked(int maxOpsInvoked) {
+        this.maxOpsInvoked = maxOpsInvoked;
+    }
+    public int getParallelAssociations() {
+        return parallelAssociations;
+    }
+    public void setParallelAssociations(int parallelAssociations) {
+        if (parallelAssociations < 1)
+            throw new IllegalArgumentException("ParallelAssociations must be greater than 0");
+        this.parallelAssociations = parallelAssociations;
+    }
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+    public void setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+    public boolean isRetrieveBridge() {
+        return retrieveBridge;
+    }
+    public void setRetrieveBridge(boolean retrieveBridge) {
+        this.retrieveBridge = retrieveBridge;
+    }
+    public String getWadoRsURL() {
+        return wadoRsURL;
+    }
+    public void setWadoRsURL(String wadoRsURL) {
+        this.wadoRsURL = wadoRsURL;
+    }
 
 }
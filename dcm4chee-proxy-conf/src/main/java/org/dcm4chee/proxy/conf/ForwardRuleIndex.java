@@ -0,0 +1,116 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.conf;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Forward rules of an AE compiled for look-up by Calling AET. For each hour
+ * of the week, the rules whose receive schedule is active are precomputed as
+ * bitmap, so matching a request needs neither a scan over all rules nor
+ * evaluating their schedules.
+ */
+public class ForwardRuleIndex {
+
+    private static final int HOURS_OF_WEEK = 7 * 24;
+
+    private final List<ForwardRule> rules;
+    private final BitSet[] activeByHourOfWeek = new BitSet[HOURS_OF_WEEK];
+    private final HashMap<String, BitSet> byCallingAET = new HashMap<String, BitSet>();
+    private final BitSet anyCallingAET = new BitSet();
+
+    public ForwardRuleIndex(List<ForwardRule> rules) {
+        this.rules = new ArrayList<ForwardRule>(rules);
+        for (int h = 0; h < HOURS_OF_WEEK; h++)
+            activeByHourOfWeek[h] = new BitSet(rules.size());
+        for (int i = 0; i < this.rules.size(); i++) {
+            ForwardRule rule = this.rules.get(i);
+            Schedule schedule = rule.getReceiveSchedule();
+            for (int h = 0; h < HOURS_OF_WEEK; h++)
+                if (schedule.isActive(h / 24, h % 24))
+                    activeByHourOfWeek[h].set(i);
+            if (rule.getCallingAETs().isEmpty())
+                anyCallingAET.set(i);
+            else
+                for (String callingAET : rule.getCallingAETs()) {
+                    BitSet bs = byCallingAET.get(callingAET);
+                    if (bs == null)
+                        byCallingAET.put(callingAET, bs = new BitSet(rules.size()));
+                    bs.set(i);
+                }
+        }
+    }
+
+    public static int hourOfWeek(Calendar cal) {
+        return (cal.get(Calendar.DAY_OF_WEEK) - 1) * 24 + cal.get(Calendar.HOUR_OF_DAY);
+    }
+
+    /**
+     * Returns the rules with receive schedule active at {@code now} which
+     * apply to {@code callingAET}, in configuration order. Rules without
+     * Calling AETs are only returned if no active rule explicitly lists
+     * {@code callingAET}, except for rules sharing their common name.
+     */
+    public List<ForwardRule> filterByCallingAET(String callingAET, Calendar now) {
+        BitSet active = activeByHourOfWeek[hourOfWeek(now)];
+        BitSet explicit = byCallingAET.get(callingAET);
+        BitSet result = new BitSet(rules.size());
+        if (explicit != null) {
+            result.or(explicit);
+            result.and(active);
+        }
+        for (int i = anyCallingAET.nextSetBit(0); i >= 0; i = anyCallingAET.nextSetBit(i + 1))
+            if (active.get(i) && !overriddenByExplicitRule(rules.get(i), result))
+                result.set(i);
+        List<ForwardRule> list = new ArrayList<ForwardRule>(result.cardinality());
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1))
+            list.add(rules.get(i));
+        return list;
+    }
+
+    private boolean overriddenByExplicitRule(ForwardRule rule, BitSet explicit) {
+        for (int i = explicit.nextSetBit(0); i >= 0; i = explicit.nextSetBit(i + 1))
+            if (!anyCallingAET.get(i) && !rules.get(i).getCommonName().equals(rule.getCommonName()))
+                return true;
+        return false;
+    }
+}
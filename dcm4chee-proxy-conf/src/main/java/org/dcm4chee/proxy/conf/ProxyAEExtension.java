@@ -57,6 +57,7 @@ import org.dcm4che3.net.TransferCapability.Role;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4chee.proxy.common.AuditDirectory;
 import org.dcm4chee.proxy.common.CMoveInfoObject;
+import org.dcm4chee.proxy.common.CMoveMessageIDRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,6 +81,9 @@ public class ProxyAEExtension extends AEExtension {
     public static final String FORWARD_CMOVE_INFO = "forward.cmove.info";
     public static final String CALLING_AET = "calling.aet";
     public static final String PIDS = "pids";
+    public static final int DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT = 3600;
+
+    public static final int DEFAULT_PREFETCH_MAX_STUDIES = 3;
 
     private String spoolDirectory;
     private boolean acceptDataOnFailedAssociation;
@@ -87,13 +91,18 @@ public class ProxyAEExtension extends AEExtension {
     private HashMap<String, ForwardOption> forwardOptions = new HashMap<String, ForwardOption>();
     private List<Retry> retries = new ArrayList<Retry>();
     private List<ForwardRule> forwardRules = new ArrayList<ForwardRule>();
+    private transient volatile ForwardRuleIndex forwardRuleIndex;
     private AttributeCoercions attributeCoercions = new AttributeCoercions();
     private String proxyPIXConsumerApplication;
     private String remotePIXManagerApplication;
     private boolean deleteFailedDataWithoutRetryConfiguration;
     private String fallbackDestinationAET;
     private boolean mergeStgCmtMessagesUsingANDLogic;
-    private CMoveInfoObject[] CMoveMessageID = new CMoveInfoObject[256];
+    private int cmoveMessageIDTimeout = DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT;
+    private String prefetchArchiveAETitle;
+    private String prefetchDestinationAETitle;
+    private int prefetchMaxStudies = DEFAULT_PREFETCH_MAX_STUDIES;
+    private final CMoveMessageIDRegistry cmoveMessageIDs = new CMoveMessageIDRegistry();
 
     public boolean isAcceptDataOnFailedAssociation() {
         return acceptDataOnFailedAssociation;
@@ -211,6 +220,16 @@ public class ProxyAEExtension extends AEExtension {
         return path;
     }
 
+    public File getRetrieveDirectoryPath() throws IOException {
+        File path = new File(getSpoolDirectory(), "retrieve");
+        if (!path.isAbsolute())
+            path = jbossServerDataDir != null
+                ? new File(jbossServerDataDir, "retrieve")
+                : new File(currentWorkingDir, "retrieve");
+        makeDirs(path);
+        return path;
+    }
+
     public static void makeDirs(File path) throws IOException {
         if (!path.mkdirs())
             if (!path.exists())
@@ -275,6 +294,18 @@ public class ProxyAEExtension extends AEExtension {
 
     public void setForwardRules(List<ForwardRule> forwardingRules) {
         this.forwardRules = forwardingRules;
+        this.forwardRuleIndex = null;
+    }
+
+    /**
+     * Returns the forward rules compiled for look-up, built on first use
+     * after the forward rules were (re-)configured.
+     */
+    public ForwardRuleIndex getForwardRuleIndex() {
+        ForwardRuleIndex index = forwardRuleIndex;
+        if (index == null)
+            forwardRuleIndex = index = new ForwardRuleIndex(forwardRules);
+        return index;
     }
 
     @SuppressWarnings("unchecked")
@@ -331,21 +362,73 @@ public class ProxyAEExtension extends AEExtension {
         this.mergeStgCmtMessagesUsingANDLogic = mergeStgCmtMessagesWithANDLogic;
     }
 
+    public int getCMoveMessageIDTimeout() {
+        return cmoveMessageIDTimeout;
+    }
+
+    public void setCMoveMessageIDTimeout(int cmoveMessageIDTimeout) {
+        this.cmoveMessageIDTimeout = cmoveMessageIDTimeout;
+    }
+
+    /**
+     * Returns the AE title of the archive from which prior studies of
+     * patients of received MPPS and worklist queries are retrieved, or
+     * {@code null} if no prior studies are prefetched.
+     */
+    public String getPrefetchArchiveAETitle() {
+        return prefetchArchiveAETitle;
+    }
+
+    public void setPrefetchArchiveAETitle(String prefetchArchiveAETitle) {
+        this.prefetchArchiveAETitle = prefetchArchiveAETitle;
+    }
+
+    /**
+     * Returns the Move Destination of prefetched prior studies, or
+     * {@code null} if they are retrieved to this AE.
+     */
+    public String getPrefetchDestinationAETitle() {
+        return prefetchDestinationAETitle;
+    }
+
+    public void setPrefetchDestinationAETitle(String prefetchDestinationAETitle) {
+        this.prefetchDestinationAETitle = prefetchDestinationAETitle;
+    }
+
+    public int getPrefetchMaxStudies() {
+        return prefetchMaxStudies;
+    }
+
+    public void setPrefetchMaxStudies(int prefetchMaxStudies) {
+        this.prefetchMaxStudies = prefetchMaxStudies;
+    }
+
     public int getNewCMoveMessageID(CMoveInfoObject info) {
-        for (int index = 0; index < 256; index++)
-            if (CMoveMessageID[index] == null) {
-                CMoveMessageID[index] = info;
-                return index + 1;
-            }
-        return -1;
+        return cmoveMessageIDs.register(info);
     }
 
     public CMoveInfoObject getCMoveInfoObject(int msgId) {
-        return CMoveMessageID[msgId - 1];
+        return cmoveMessageIDs.get(msgId);
     }
 
     public void removeCMoveInfoObject(int msgId) {
-        CMoveMessageID[msgId - 1] = null;
+        cmoveMessageIDs.remove(msgId);
+    }
+
+    public boolean removeCMoveInfoObject(int msgId, CMoveInfoObject info) {
+        return cmoveMessageIDs.remove(msgId, info);
+    }
+
+    /**
+     * Releases Message IDs of forwarded C-MOVE requests older than the
+     * configured timeout and returns their number.
+     */
+    public int removeExpiredCMoveInfoObjects() {
+        return cmoveMessageIDs.removeExpired(cmoveMessageIDTimeout * 1000L);
+    }
+
+    public int getActiveCMoveCount() {
+        return cmoveMessageIDs.size();
     }
 
     public boolean isAssociationFromDestinationAET(Association asAccepted) {
@@ -372,6 +455,10 @@ public class ProxyAEExtension extends AEExtension {
         setDeleteFailedDataWithoutRetryConfiguration(proxyAEE.deleteFailedDataWithoutRetryConfiguration);
         setFallbackDestinationAET(proxyAEE.fallbackDestinationAET);
         setMergeStgCmtMessagesUsingANDLogic(proxyAEE.mergeStgCmtMessagesUsingANDLogic);
+        setCMoveMessageIDTimeout(proxyAEE.cmoveMessageIDTimeout);
+        setPrefetchArchiveAETitle(proxyAEE.prefetchArchiveAETitle);
+        setPrefetchDestinationAETitle(proxyAEE.prefetchDestinationAETitle);
+        setPrefetchMaxStudies(proxyAEE.prefetchMaxStudies);
         attributeCoercions.clear();
         for (AttributeCoercion ac : proxyAEE.getAttributeCoercions())
             addAttributeCoercion(ac);
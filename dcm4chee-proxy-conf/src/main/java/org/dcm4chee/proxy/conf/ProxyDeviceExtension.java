@@ -38,14 +38,20 @@
 
 package org.dcm4chee.proxy.conf;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamSource;
 
 import org.dcm4che3.conf.api.hl7.HL7Configuration;
-import org.dcm4che3.io.TemplatesCache;
 import org.dcm4che3.net.DeviceExtension;
 import org.dcm4che3.util.StringUtils;
 
@@ -63,14 +69,36 @@ public class ProxyDeviceExtension extends DeviceExtension {
 
 	public static final int DEFAULT_MAX_TIME_To_KEEP_PART_FILES = 3600;
 
+    public static final int DEFAULT_SPOOL_NOTIFICATION_DELAY = -1;
+
+    public static final int DEFAULT_PIX_CACHE_MAX_SIZE = 1000;
+
+    public static final int DEFAULT_QUERY_CACHE_MAX_MATCHES = 10000;
+
+    public static final int DEFAULT_PREFETCH_THREADS = 2;
+
+    public static final int DEFAULT_PREFETCH_SUPPRESS_INTERVAL = 3600;
+
     private Integer schedulerInterval;
     private Integer cleanerInterval;
     private Integer maxTimeToKeepPartFilesInSeconds;
     private HL7Configuration dicomConf;
-    private transient TemplatesCache templateCache;
+    private transient volatile ConcurrentHashMap<String, Templates> templatesCache;
+    private transient SAXTransformerFactory templatesFactory;
     private int forwardThreads;
     private transient ThreadPoolExecutor fileForwardingExecutor;
+    private transient ForkJoinPool frameExtractionPool;
     private int configurationStaleTimeout;
+    private int forwardAssociationIdleTimeout;
+    private int spoolNotificationDelay = DEFAULT_SPOOL_NOTIFICATION_DELAY;
+    private int pixCacheTimeout;
+    private int pixCacheNegativeTimeout;
+    private int pixCacheMaxSize = DEFAULT_PIX_CACHE_MAX_SIZE;
+    private Map<String, Integer> queryCacheTimeouts = new HashMap<String, Integer>();
+    private int queryCacheMaxMatches = DEFAULT_QUERY_CACHE_MAX_MATCHES;
+    private int prefetchThreads = DEFAULT_PREFETCH_THREADS;
+    private int prefetchRate;
+    private int prefetchSuppressInterval = DEFAULT_PREFETCH_SUPPRESS_INTERVAL;
 
     public ThreadPoolExecutor getFileForwardingExecutor() {
         if (fileForwardingExecutor == null)
@@ -79,6 +107,28 @@ public class ProxyDeviceExtension extends DeviceExtension {
         return fileForwardingExecutor;
     }
 
+    /**
+     * Pool for extracting frames of enhanced multi-frame objects in parallel,
+     * with one worker per available processor.
+     */
+    public synchronized ForkJoinPool getFrameExtractionPool() {
+        if (frameExtractionPool == null)
+            frameExtractionPool = new ForkJoinPool();
+        return frameExtractionPool;
+    }
+
+    /**
+     * Shuts down the pool for extracting frames. Extractions in progress
+     * complete their remaining frames on the calling thread; a new pool is
+     * created on next use.
+     */
+    public synchronized void shutdownFrameExtractionPool() {
+        if (frameExtractionPool != null) {
+            frameExtractionPool.shutdown();
+            frameExtractionPool = null;
+        }
+    }
+
     public int getForwardThreads() {
         return forwardThreads;
     }
@@ -90,15 +140,56 @@ public class ProxyDeviceExtension extends DeviceExtension {
     }
 
     public void clearTemplatesCache() {
-        TemplatesCache cache = templateCache;
+        ConcurrentHashMap<String, Templates> cache = templatesCache;
         if (cache != null)
             cache.clear();
     }
 
+    private ConcurrentHashMap<String, Templates> templatesCache() {
+        ConcurrentHashMap<String, Templates> cache = templatesCache;
+        if (cache == null)
+            synchronized (this) {
+                cache = templatesCache;
+                if (cache == null)
+                    templatesCache = cache = new ConcurrentHashMap<String, Templates>();
+            }
+        return cache;
+    }
+
+    /**
+     * Returns the cached compiled style sheet for {@code uri}, or
+     * {@code null} if it was not compiled yet.
+     */
+    public Templates getCachedTemplates(String uri) {
+        return templatesCache().get(systemIdOf(uri));
+    }
+
+    /**
+     * Returns the compiled style sheet for {@code uri}. Look-ups of a cached
+     * style sheet do not block each other; only compiling a style sheet on a
+     * cache miss is serialized.
+     */
     public Templates getTemplates(String uri) throws TransformerConfigurationException {
-        if (templateCache == null)
-            templateCache = new TemplatesCache();
-        return templateCache.get(StringUtils.replaceSystemProperties(uri).replace('\\', '/'));
+        String systemId = systemIdOf(uri);
+        ConcurrentHashMap<String, Templates> cache = templatesCache();
+        Templates templates = cache.get(systemId);
+        if (templates != null)
+            return templates;
+
+        synchronized (this) {
+            templates = cache.get(systemId);
+            if (templates == null) {
+                if (templatesFactory == null)
+                    templatesFactory = (SAXTransformerFactory) TransformerFactory.newInstance();
+                templates = templatesFactory.newTemplates(new StreamSource(systemId));
+                cache.put(systemId, templates);
+            }
+        }
+        return templates;
+    }
+
+    private static String systemIdOf(String uri) {
+        return StringUtils.replaceSystemProperties(uri).replace('\\', '/');
     }
 
     public ProxyDeviceExtension() {
@@ -138,6 +229,112 @@ public class ProxyDeviceExtension extends DeviceExtension {
         this.configurationStaleTimeout = configurationStaleTimeout;
     }
 
+    public int getForwardAssociationIdleTimeout() {
+        return forwardAssociationIdleTimeout;
+    }
+
+    public void setForwardAssociationIdleTimeout(int forwardAssociationIdleTimeout) {
+        this.forwardAssociationIdleTimeout = forwardAssociationIdleTimeout;
+    }
+
+    public int getSpoolNotificationDelay() {
+        return spoolNotificationDelay;
+    }
+
+    public void setSpoolNotificationDelay(int spoolNotificationDelay) {
+        this.spoolNotificationDelay = spoolNotificationDelay;
+    }
+
+    public int getPIXCacheTimeout() {
+        return pixCacheTimeout;
+    }
+
+    public void setPIXCacheTimeout(int pixCacheTimeout) {
+        this.pixCacheTimeout = pixCacheTimeout;
+    }
+
+    public int getPIXCacheNegativeTimeout() {
+        return pixCacheNegativeTimeout;
+    }
+
+    public void setPIXCacheNegativeTimeout(int pixCacheNegativeTimeout) {
+        this.pixCacheNegativeTimeout = pixCacheNegativeTimeout;
+    }
+
+    public int getPIXCacheMaxSize() {
+        return pixCacheMaxSize;
+    }
+
+    public void setPIXCacheMaxSize(int pixCacheMaxSize) {
+        this.pixCacheMaxSize = pixCacheMaxSize;
+    }
+
+    /**
+     * Returns the time in s C-FIND results of queries of SOP Class
+     * {@code cuid} are cached, or 0 if they are not cached.
+     */
+    public int getQueryCacheTimeout(String cuid) {
+        Integer timeout = queryCacheTimeouts.get(cuid);
+        return timeout != null ? timeout : 0;
+    }
+
+    public String[] getQueryCacheTimeouts() {
+        String[] values = new String[queryCacheTimeouts.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : queryCacheTimeouts.entrySet())
+            values[i++] = entry.getKey() + ':' + entry.getValue();
+        return values;
+    }
+
+    public void setQueryCacheTimeouts(String... values) {
+        Map<String, Integer> timeouts = new HashMap<String, Integer>();
+        for (String value : values) {
+            int index = value.lastIndexOf(':');
+            if (index <= 0)
+                throw new IllegalArgumentException("QueryCacheTimeout: " + value);
+            timeouts.put(value.substring(0, index).trim(), Integer.valueOf(value.substring(index + 1).trim()));
+        }
+        this.queryCacheTimeouts = timeouts;
+    }
+
+    public int getQueryCacheMaxMatches() {
+        return queryCacheMaxMatches;
+    }
+
+    public void setQueryCacheMaxMatches(int queryCacheMaxMatches) {
+        this.queryCacheMaxMatches = queryCacheMaxMatches;
+    }
+
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    public void setPrefetchThreads(int prefetchThreads) {
+        if (prefetchThreads <= 0)
+            throw new IllegalArgumentException("PrefetchThreads: " + prefetchThreads);
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    /**
+     * Returns the maximum number of prefetches started per minute, or 0 if
+     * prefetches are not rate limited.
+     */
+    public int getPrefetchRate() {
+        return prefetchRate;
+    }
+
+    public void setPrefetchRate(int prefetchRate) {
+        this.prefetchRate = prefetchRate;
+    }
+
+    public int getPrefetchSuppressInterval() {
+        return prefetchSuppressInterval;
+    }
+
+    public void setPrefetchSuppressInterval(int prefetchSuppressInterval) {
+        this.prefetchSuppressInterval = prefetchSuppressInterval;
+    }
+
     @Override
     public void reconfigure(DeviceExtension from) {
         ProxyDeviceExtension proxyDevExt = (ProxyDeviceExtension) from;
@@ -145,6 +342,16 @@ public class ProxyDeviceExtension extends DeviceExtension {
         setSchedulerInterval(proxyDevExt.schedulerInterval);
         fileForwardingExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(forwardThreads);
         setConfigurationStaleTimeout(proxyDevExt.configurationStaleTimeout);
+        setForwardAssociationIdleTimeout(proxyDevExt.forwardAssociationIdleTimeout);
+        setSpoolNotificationDelay(proxyDevExt.spoolNotificationDelay);
+        setPIXCacheTimeout(proxyDevExt.pixCacheTimeout);
+        setPIXCacheNegativeTimeout(proxyDevExt.pixCacheNegativeTimeout);
+        setPIXCacheMaxSize(proxyDevExt.pixCacheMaxSize);
+        queryCacheTimeouts = proxyDevExt.queryCacheTimeouts;
+        setQueryCacheMaxMatches(proxyDevExt.queryCacheMaxMatches);
+        setPrefetchThreads(proxyDevExt.prefetchThreads);
+        setPrefetchRate(proxyDevExt.prefetchRate);
+        setPrefetchSuppressInterval(proxyDevExt.prefetchSuppressInterval);
     }
 
 	public Integer getMaxTimeToKeepPartFilesInSeconds() {
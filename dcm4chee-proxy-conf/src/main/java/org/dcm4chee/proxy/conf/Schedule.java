@@ -83,8 +83,17 @@ public class Schedule implements Serializable {
     }
 
     public boolean isNow(final Calendar now) {
-        return days.get(now.get(Calendar.DAY_OF_WEEK) - 1)
-                && hours.get(now.get(Calendar.HOUR_OF_DAY));
+        return isActive(now.get(Calendar.DAY_OF_WEEK) - 1, now.get(Calendar.HOUR_OF_DAY));
+    }
+
+    /**
+     * @param dayOfWeek
+     *            0 (Sunday) to 6 (Saturday)
+     * @param hourOfDay
+     *            0 to 23
+     */
+    public boolean isActive(int dayOfWeek, int hourOfDay) {
+        return days.get(dayOfWeek) && hours.get(hourOfDay);
     }
 
     private static void set(BitSet bs, String value, String[] a) {
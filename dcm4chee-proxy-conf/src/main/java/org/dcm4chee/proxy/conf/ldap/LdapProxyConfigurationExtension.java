@@ -86,6 +86,21 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         
         LdapUtils.storeNotNull(attrs, "dcmForwardThreads", proxyDev.getForwardThreads());
         LdapUtils.storeNotDef(attrs, "dcmProxyConfigurationStaleTimeout", proxyDev.getConfigurationStaleTimeout(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmForwardAssociationIdleTimeout", proxyDev.getForwardAssociationIdleTimeout(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmSpoolNotificationDelay", proxyDev.getSpoolNotificationDelay(),
+                ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY);
+        LdapUtils.storeNotDef(attrs, "dcmPIXCacheTimeout", proxyDev.getPIXCacheTimeout(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmPIXCacheNegativeTimeout", proxyDev.getPIXCacheNegativeTimeout(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmPIXCacheMaxSize", proxyDev.getPIXCacheMaxSize(),
+                ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE);
+        LdapUtils.storeNotEmpty(attrs, "dcmQueryCacheTimeout", proxyDev.getQueryCacheTimeouts());
+        LdapUtils.storeNotDef(attrs, "dcmQueryCacheMaxMatches", proxyDev.getQueryCacheMaxMatches(),
+                ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES);
+        LdapUtils.storeNotDef(attrs, "dcmPrefetchThreads", proxyDev.getPrefetchThreads(),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS);
+        LdapUtils.storeNotDef(attrs, "dcmPrefetchRate", proxyDev.getPrefetchRate(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmPrefetchSuppressInterval", proxyDev.getPrefetchSuppressInterval(),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL);
     }
 
     @Override
@@ -104,6 +119,12 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
                 proxyAEE.isDeleteFailedDataWithoutRetryConfiguration());
         LdapUtils.storeNotNull(attrs, "dcmDestinationAETitle", proxyAEE.getFallbackDestinationAET());
         LdapUtils.storeBoolean(attrs, "dcmMergeStgCmtMessagesUsingANDLogic", proxyAEE.isMergeStgCmtMessagesUsingANDLogic());
+        LdapUtils.storeNotDef(attrs, "dcmCMoveMessageIDTimeout", proxyAEE.getCMoveMessageIDTimeout(),
+                ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT);
+        LdapUtils.storeNotNull(attrs, "dcmPrefetchArchiveAETitle", proxyAEE.getPrefetchArchiveAETitle());
+        LdapUtils.storeNotNull(attrs, "dcmPrefetchDestinationAETitle", proxyAEE.getPrefetchDestinationAETitle());
+        LdapUtils.storeNotDef(attrs, "dcmPrefetchMaxStudies", proxyAEE.getPrefetchMaxStudies(),
+                ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES);
     }
 
     @Override
@@ -122,6 +143,21 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         proxyDev.setForwardThreads(LdapUtils.intValue(attrs.get("dcmForwardThreads"),
                 ProxyDeviceExtension.DEFAULT_FORWARD_THREADS));
         proxyDev.setConfigurationStaleTimeout(LdapUtils.intValue(attrs.get("dcmProxyConfigurationStaleTimeout"), 0));
+        proxyDev.setForwardAssociationIdleTimeout(LdapUtils.intValue(attrs.get("dcmForwardAssociationIdleTimeout"), 0));
+        proxyDev.setSpoolNotificationDelay(LdapUtils.intValue(attrs.get("dcmSpoolNotificationDelay"),
+                ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY));
+        proxyDev.setPIXCacheTimeout(LdapUtils.intValue(attrs.get("dcmPIXCacheTimeout"), 0));
+        proxyDev.setPIXCacheNegativeTimeout(LdapUtils.intValue(attrs.get("dcmPIXCacheNegativeTimeout"), 0));
+        proxyDev.setPIXCacheMaxSize(LdapUtils.intValue(attrs.get("dcmPIXCacheMaxSize"),
+                ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE));
+        proxyDev.setQueryCacheTimeouts(LdapUtils.stringArray(attrs.get("dcmQueryCacheTimeout")));
+        proxyDev.setQueryCacheMaxMatches(LdapUtils.intValue(attrs.get("dcmQueryCacheMaxMatches"),
+                ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES));
+        proxyDev.setPrefetchThreads(LdapUtils.intValue(attrs.get("dcmPrefetchThreads"),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS));
+        proxyDev.setPrefetchRate(LdapUtils.intValue(attrs.get("dcmPrefetchRate"), 0));
+        proxyDev.setPrefetchSuppressInterval(LdapUtils.intValue(attrs.get("dcmPrefetchSuppressInterval"),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL));
     }
 
     @Override
@@ -142,6 +178,13 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         proxyAEE.setFallbackDestinationAET(LdapUtils.stringValue(attrs.get("dcmDestinationAETitle"), null));
         proxyAEE.setMergeStgCmtMessagesUsingANDLogic(LdapUtils.booleanValue(
                 attrs.get("dcmMergeStgCmtMessagesUsingANDLogic"), Boolean.FALSE));
+        proxyAEE.setCMoveMessageIDTimeout(LdapUtils.intValue(attrs.get("dcmCMoveMessageIDTimeout"),
+                ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT));
+        proxyAEE.setPrefetchArchiveAETitle(LdapUtils.stringValue(attrs.get("dcmPrefetchArchiveAETitle"), null));
+        proxyAEE.setPrefetchDestinationAETitle(LdapUtils.stringValue(attrs.get("dcmPrefetchDestinationAETitle"),
+                null));
+        proxyAEE.setPrefetchMaxStudies(LdapUtils.intValue(attrs.get("dcmPrefetchMaxStudies"),
+                ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES));
     }
 
     @Override
@@ -208,6 +251,11 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
                 ForwardOption fwdOption = new ForwardOption();
                 fwdOption.setDescription(LdapUtils.stringValue(attrs.get("dicomDescription"), null));
                 fwdOption.setConvertEmf2Sf(LdapUtils.booleanValue(attrs.get("dcmConvertEmf2Sf"), false));
+                fwdOption.setMaxOpsInvoked(LdapUtils.intValue(attrs.get("dcmForwardMaxOpsInvoked"), 0));
+                fwdOption.setParallelAssociations(LdapUtils.intValue(attrs.get("dcmForwardParallelAssociations"), 1));
+                fwdOption.setQueryTimeout(LdapUtils.intValue(attrs.get("dcmForwardQueryTimeout"), 0));
+                fwdOption.setRetrieveBridge(LdapUtils.booleanValue(attrs.get("dcmRetrieveBridge"), false));
+                fwdOption.setWadoRsURL(LdapUtils.stringValue(attrs.get("dcmWadoRsURL"), null));
                 Schedule schedule = new Schedule();
                 schedule.setDays(LdapUtils.stringValue(attrs.get("dcmScheduleDays"), null));
                 schedule.setHours(LdapUtils.stringValue(attrs.get("dcmScheduleHours"), null));
@@ -317,6 +365,12 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         LdapUtils.storeNotNull(attrs, "dcmScheduleHours", forwardOptionEntry.getValue().getSchedule().getHours());
         LdapUtils.storeNotNull(attrs, "dicomDescription", forwardOptionEntry.getValue().getDescription());
         LdapUtils.storeNotNull(attrs, "dcmConvertEmf2Sf", forwardOptionEntry.getValue().isConvertEmf2Sf());
+        LdapUtils.storeNotDef(attrs, "dcmForwardMaxOpsInvoked", forwardOptionEntry.getValue().getMaxOpsInvoked(), 0);
+        LdapUtils.storeNotDef(attrs, "dcmForwardParallelAssociations",
+                forwardOptionEntry.getValue().getParallelAssociations(), 1);
+        LdapUtils.storeNotDef(attrs, "dcmForwardQueryTimeout", forwardOptionEntry.getValue().getQueryTimeout(), 0);
+        LdapUtils.storeNotNull(attrs, "dcmRetrieveBridge", forwardOptionEntry.getValue().isRetrieveBridge());
+        LdapUtils.storeNotNull(attrs, "dcmWadoRsURL", forwardOptionEntry.getValue().getWadoRsURL());
         LdapUtils.storeNotNull(attrs, "dcmDestinationAETitle", forwardOptionEntry.getKey());
         return attrs;
     }
@@ -356,6 +410,14 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
                 pb.getFallbackDestinationAET());
         LdapUtils.storeDiff(mods, "dcmMergeStgCmtMessagesUsingANDLogic", pa.isMergeStgCmtMessagesUsingANDLogic(),
                 pb.isMergeStgCmtMessagesUsingANDLogic());
+        LdapUtils.storeDiff(mods, "dcmCMoveMessageIDTimeout", pa.getCMoveMessageIDTimeout(),
+                pb.getCMoveMessageIDTimeout(), ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT);
+        LdapUtils.storeDiff(mods, "dcmPrefetchArchiveAETitle", pa.getPrefetchArchiveAETitle(),
+                pb.getPrefetchArchiveAETitle());
+        LdapUtils.storeDiff(mods, "dcmPrefetchDestinationAETitle", pa.getPrefetchDestinationAETitle(),
+                pb.getPrefetchDestinationAETitle());
+        LdapUtils.storeDiff(mods, "dcmPrefetchMaxStudies", pa.getPrefetchMaxStudies(),
+                pb.getPrefetchMaxStudies(), ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES);
     }
 
     @Override
@@ -372,6 +434,23 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         LdapUtils.storeDiff(mods, "dcmForwardThreads", pa.getForwardThreads(), pb.getForwardThreads());
         LdapUtils.storeDiff(mods, "dcmProxyConfigurationStaleTimeout", pa.getConfigurationStaleTimeout(),
                 pb.getConfigurationStaleTimeout(), 0);
+        LdapUtils.storeDiff(mods, "dcmForwardAssociationIdleTimeout", pa.getForwardAssociationIdleTimeout(),
+                pb.getForwardAssociationIdleTimeout(), 0);
+        LdapUtils.storeDiff(mods, "dcmSpoolNotificationDelay", pa.getSpoolNotificationDelay(),
+                pb.getSpoolNotificationDelay(), ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY);
+        LdapUtils.storeDiff(mods, "dcmPIXCacheTimeout", pa.getPIXCacheTimeout(), pb.getPIXCacheTimeout(), 0);
+        LdapUtils.storeDiff(mods, "dcmPIXCacheNegativeTimeout", pa.getPIXCacheNegativeTimeout(),
+                pb.getPIXCacheNegativeTimeout(), 0);
+        LdapUtils.storeDiff(mods, "dcmPIXCacheMaxSize", pa.getPIXCacheMaxSize(), pb.getPIXCacheMaxSize(),
+                ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE);
+        LdapUtils.storeDiff(mods, "dcmQueryCacheTimeout", pa.getQueryCacheTimeouts(), pb.getQueryCacheTimeouts());
+        LdapUtils.storeDiff(mods, "dcmQueryCacheMaxMatches", pa.getQueryCacheMaxMatches(),
+                pb.getQueryCacheMaxMatches(), ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES);
+        LdapUtils.storeDiff(mods, "dcmPrefetchThreads", pa.getPrefetchThreads(), pb.getPrefetchThreads(),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS);
+        LdapUtils.storeDiff(mods, "dcmPrefetchRate", pa.getPrefetchRate(), pb.getPrefetchRate(), 0);
+        LdapUtils.storeDiff(mods, "dcmPrefetchSuppressInterval", pa.getPrefetchSuppressInterval(),
+                pb.getPrefetchSuppressInterval(), ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL);
     }
 
     @Override
@@ -481,6 +560,12 @@ public class LdapProxyConfigurationExtension extends LdapDicomConfigurationExten
         LdapUtils.storeDiff(mods, "dcmScheduleHours", a.getSchedule().getHours(), b.getSchedule().getHours());
         LdapUtils.storeDiff(mods, "dicomDescription", a.getDescription(), b.getDescription());
         LdapUtils.storeDiff(mods, "dcmConvertEmf2Sf", a.isConvertEmf2Sf(), b.isConvertEmf2Sf());
+        LdapUtils.storeDiff(mods, "dcmForwardMaxOpsInvoked", a.getMaxOpsInvoked(), b.getMaxOpsInvoked(), 0);
+        LdapUtils.storeDiff(mods, "dcmForwardParallelAssociations", a.getParallelAssociations(),
+                b.getParallelAssociations(), 1);
+        LdapUtils.storeDiff(mods, "dcmForwardQueryTimeout", a.getQueryTimeout(), b.getQueryTimeout(), 0);
+        LdapUtils.storeDiff(mods, "dcmRetrieveBridge", a.isRetrieveBridge(), b.isRetrieveBridge());
+        LdapUtils.storeDiff(mods, "dcmWadoRsURL", a.getWadoRsURL(), b.getWadoRsURL());
         return mods;
     }
 
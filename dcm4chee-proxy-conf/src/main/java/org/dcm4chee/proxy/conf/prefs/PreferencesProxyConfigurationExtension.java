@@ -84,6 +84,22 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
         PreferencesUtils.storeNotNull(prefs, "dcmForwardThreads", proxyDev.getForwardThreads());
         PreferencesUtils.storeNotDef(prefs, "dcmProxyConfigurationStaleTimeout",
                 proxyDev.getConfigurationStaleTimeout(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmForwardAssociationIdleTimeout",
+                proxyDev.getForwardAssociationIdleTimeout(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmSpoolNotificationDelay",
+                proxyDev.getSpoolNotificationDelay(), ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY);
+        PreferencesUtils.storeNotDef(prefs, "dcmPIXCacheTimeout", proxyDev.getPIXCacheTimeout(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmPIXCacheNegativeTimeout", proxyDev.getPIXCacheNegativeTimeout(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmPIXCacheMaxSize",
+                proxyDev.getPIXCacheMaxSize(), ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE);
+        PreferencesUtils.storeNotEmpty(prefs, "dcmQueryCacheTimeout", proxyDev.getQueryCacheTimeouts());
+        PreferencesUtils.storeNotDef(prefs, "dcmQueryCacheMaxMatches",
+                proxyDev.getQueryCacheMaxMatches(), ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES);
+        PreferencesUtils.storeNotDef(prefs, "dcmPrefetchThreads", proxyDev.getPrefetchThreads(),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS);
+        PreferencesUtils.storeNotDef(prefs, "dcmPrefetchRate", proxyDev.getPrefetchRate(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmPrefetchSuppressInterval", proxyDev.getPrefetchSuppressInterval(),
+                ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL);
     }
 
     @Override
@@ -106,6 +122,13 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
         PreferencesUtils.storeNotNull(prefs, "dcmDestinationAETitle", proxyAEE.getFallbackDestinationAET());
         PreferencesUtils.storeNotNull(prefs, "dcmMergeStgCmtMessagesUsingANDLogic",
                 proxyAEE.isMergeStgCmtMessagesUsingANDLogic());
+        PreferencesUtils.storeNotDef(prefs, "dcmCMoveMessageIDTimeout", proxyAEE.getCMoveMessageIDTimeout(),
+                ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT);
+        PreferencesUtils.storeNotNull(prefs, "dcmPrefetchArchiveAETitle", proxyAEE.getPrefetchArchiveAETitle());
+        PreferencesUtils.storeNotNull(prefs, "dcmPrefetchDestinationAETitle",
+                proxyAEE.getPrefetchDestinationAETitle());
+        PreferencesUtils.storeNotDef(prefs, "dcmPrefetchMaxStudies", proxyAEE.getPrefetchMaxStudies(),
+                ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES);
     }
 
     @Override
@@ -123,6 +146,20 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
                 ProxyDeviceExtension.DEFAULT_MAX_TIME_To_KEEP_PART_FILES));
         proxyDev.setForwardThreads(prefs.getInt("dcmForwardThreads", ProxyDeviceExtension.DEFAULT_FORWARD_THREADS));
         proxyDev.setConfigurationStaleTimeout(prefs.getInt("dcmProxyConfigurationStaleTimeout", 0));
+        proxyDev.setForwardAssociationIdleTimeout(prefs.getInt("dcmForwardAssociationIdleTimeout", 0));
+        proxyDev.setSpoolNotificationDelay(prefs.getInt("dcmSpoolNotificationDelay",
+                ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY));
+        proxyDev.setPIXCacheTimeout(prefs.getInt("dcmPIXCacheTimeout", 0));
+        proxyDev.setPIXCacheNegativeTimeout(prefs.getInt("dcmPIXCacheNegativeTimeout", 0));
+        proxyDev.setPIXCacheMaxSize(prefs.getInt("dcmPIXCacheMaxSize",
+                ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE));
+        proxyDev.setQueryCacheTimeouts(PreferencesUtils.stringArray(prefs, "dcmQueryCacheTimeout"));
+        proxyDev.setQueryCacheMaxMatches(prefs.getInt("dcmQueryCacheMaxMatches",
+                ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES));
+        proxyDev.setPrefetchThreads(prefs.getInt("dcmPrefetchThreads", ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS));
+        proxyDev.setPrefetchRate(prefs.getInt("dcmPrefetchRate", 0));
+        proxyDev.setPrefetchSuppressInterval(prefs.getInt("dcmPrefetchSuppressInterval",
+                ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL));
     }
 
     @Override
@@ -141,6 +178,12 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
                 "dcmDeleteFailedDataWithoutRetryConfiguration", false));
         proxyAEE.setFallbackDestinationAET(prefs.get("dcmDestinationAETitle", null));
         proxyAEE.setMergeStgCmtMessagesUsingANDLogic(prefs.getBoolean("dcmMergeStgCmtMessagesUsingANDLogic", false));
+        proxyAEE.setCMoveMessageIDTimeout(prefs.getInt("dcmCMoveMessageIDTimeout",
+                ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT));
+        proxyAEE.setPrefetchArchiveAETitle(prefs.get("dcmPrefetchArchiveAETitle", null));
+        proxyAEE.setPrefetchDestinationAETitle(prefs.get("dcmPrefetchDestinationAETitle", null));
+        proxyAEE.setPrefetchMaxStudies(prefs.getInt("dcmPrefetchMaxStudies",
+                ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES));
     }
 
     @Override
@@ -200,6 +243,11 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
             ForwardOption fwdOption = new ForwardOption();
             fwdOption.setDescription(fwdOptionNode.get("dicomDescription", null));
             fwdOption.setConvertEmf2Sf(fwdOptionNode.getBoolean("dcmConvertEmf2Sf", false));
+            fwdOption.setMaxOpsInvoked(fwdOptionNode.getInt("dcmForwardMaxOpsInvoked", 0));
+            fwdOption.setParallelAssociations(fwdOptionNode.getInt("dcmForwardParallelAssociations", 1));
+            fwdOption.setQueryTimeout(fwdOptionNode.getInt("dcmForwardQueryTimeout", 0));
+            fwdOption.setRetrieveBridge(fwdOptionNode.getBoolean("dcmRetrieveBridge", false));
+            fwdOption.setWadoRsURL(fwdOptionNode.get("dcmWadoRsURL", null));
             Schedule schedule = new Schedule();
             schedule.setDays(fwdOptionNode.get("dcmScheduleDays", null));
             schedule.setHours(fwdOptionNode.get("dcmScheduleHours", null));
@@ -279,6 +327,12 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
         PreferencesUtils.storeNotNull(prefs, "dcmScheduleHours", fwdOptionEntry.getValue().getSchedule().getHours());
         PreferencesUtils.storeNotNull(prefs, "dicomDescription", fwdOptionEntry.getValue().getDescription());
         PreferencesUtils.storeNotNull(prefs, "dcmConvertEmf2Sf", fwdOptionEntry.getValue().isConvertEmf2Sf());
+        PreferencesUtils.storeNotDef(prefs, "dcmForwardMaxOpsInvoked", fwdOptionEntry.getValue().getMaxOpsInvoked(), 0);
+        PreferencesUtils.storeNotDef(prefs, "dcmForwardParallelAssociations",
+                fwdOptionEntry.getValue().getParallelAssociations(), 1);
+        PreferencesUtils.storeNotDef(prefs, "dcmForwardQueryTimeout", fwdOptionEntry.getValue().getQueryTimeout(), 0);
+        PreferencesUtils.storeNotNull(prefs, "dcmRetrieveBridge", fwdOptionEntry.getValue().isRetrieveBridge());
+        PreferencesUtils.storeNotNull(prefs, "dcmWadoRsURL", fwdOptionEntry.getValue().getWadoRsURL());
         PreferencesUtils.storeNotNull(prefs, "dcmDestinationAETitle", fwdOptionEntry.getKey());
     }
 
@@ -316,6 +370,14 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
                 pb.getFallbackDestinationAET());
         PreferencesUtils.storeDiff(prefs, "dcmMergeStgCmtMessagesUsingANDLogic",
                 pa.isMergeStgCmtMessagesUsingANDLogic(), pb.isMergeStgCmtMessagesUsingANDLogic());
+        PreferencesUtils.storeDiff(prefs, "dcmCMoveMessageIDTimeout", pa.getCMoveMessageIDTimeout(),
+                pb.getCMoveMessageIDTimeout(), ProxyAEExtension.DEFAULT_CMOVE_MESSAGE_ID_TIMEOUT);
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchArchiveAETitle", pa.getPrefetchArchiveAETitle(),
+                pb.getPrefetchArchiveAETitle());
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchDestinationAETitle", pa.getPrefetchDestinationAETitle(),
+                pb.getPrefetchDestinationAETitle());
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchMaxStudies", pa.getPrefetchMaxStudies(),
+                pb.getPrefetchMaxStudies(), ProxyAEExtension.DEFAULT_PREFETCH_MAX_STUDIES);
     }
 
     @Override
@@ -332,6 +394,25 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
         PreferencesUtils.storeDiff(prefs, "dcmForwardThreads", pa.getForwardThreads(), pb.getForwardThreads());
         PreferencesUtils.storeDiff(prefs, "dcmProxyConfigurationStaleTimeout", pa.getConfigurationStaleTimeout(),
                 pb.getConfigurationStaleTimeout(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmForwardAssociationIdleTimeout", pa.getForwardAssociationIdleTimeout(),
+                pb.getForwardAssociationIdleTimeout(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmSpoolNotificationDelay", pa.getSpoolNotificationDelay(),
+                pb.getSpoolNotificationDelay(), ProxyDeviceExtension.DEFAULT_SPOOL_NOTIFICATION_DELAY);
+        PreferencesUtils.storeDiff(prefs, "dcmPIXCacheTimeout", pa.getPIXCacheTimeout(),
+                pb.getPIXCacheTimeout(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmPIXCacheNegativeTimeout", pa.getPIXCacheNegativeTimeout(),
+                pb.getPIXCacheNegativeTimeout(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmPIXCacheMaxSize", pa.getPIXCacheMaxSize(),
+                pb.getPIXCacheMaxSize(), ProxyDeviceExtension.DEFAULT_PIX_CACHE_MAX_SIZE);
+        PreferencesUtils.storeDiff(prefs, "dcmQueryCacheTimeout", pa.getQueryCacheTimeouts(),
+                pb.getQueryCacheTimeouts());
+        PreferencesUtils.storeDiff(prefs, "dcmQueryCacheMaxMatches", pa.getQueryCacheMaxMatches(),
+                pb.getQueryCacheMaxMatches(), ProxyDeviceExtension.DEFAULT_QUERY_CACHE_MAX_MATCHES);
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchThreads", pa.getPrefetchThreads(),
+                pb.getPrefetchThreads(), ProxyDeviceExtension.DEFAULT_PREFETCH_THREADS);
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchRate", pa.getPrefetchRate(), pb.getPrefetchRate(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmPrefetchSuppressInterval", pa.getPrefetchSuppressInterval(),
+                pb.getPrefetchSuppressInterval(), ProxyDeviceExtension.DEFAULT_PREFETCH_SUPPRESS_INTERVAL);
     }
 
     @Override
@@ -426,6 +507,12 @@ public class PreferencesProxyConfigurationExtension extends PreferencesDicomConf
         PreferencesUtils.storeDiff(prefs, "dcmScheduleHours", a.getSchedule().getHours(), b.getSchedule().getHours());
         PreferencesUtils.storeDiff(prefs, "dicomDescription", a.getDescription(), b.getDescription());
         PreferencesUtils.storeDiff(prefs, "dcmConvertEmf2Sf", a.isConvertEmf2Sf(), b.isConvertEmf2Sf());
+        PreferencesUtils.storeDiff(prefs, "dcmForwardMaxOpsInvoked", a.getMaxOpsInvoked(), b.getMaxOpsInvoked(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmForwardParallelAssociations", a.getParallelAssociations(),
+                b.getParallelAssociations(), 1);
+        PreferencesUtils.storeDiff(prefs, "dcmForwardQueryTimeout", a.getQueryTimeout(), b.getQueryTimeout(), 0);
+        PreferencesUtils.storeDiff(prefs, "dcmRetrieveBridge", a.isRetrieveBridge(), b.isRetrieveBridge());
+        PreferencesUtils.storeDiff(prefs, "dcmWadoRsURL", a.getWadoRsURL(), b.getWadoRsURL());
     }
 
     private void mergeRetries(List<Retry> prevRetries, List<Retry> currRetries, Preferences parentNode)
@@ -0,0 +1,102 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.common;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CMoveMessageIDRegistryTest {
+
+    private static CMoveInfoObject info() {
+        return new CMoveInfoObject("MOVESCU", "STORESCP", "PROXY", "PROXY", 1, null);
+    }
+
+    @Test
+    public void testRegister() {
+        CMoveMessageIDRegistry registry = new CMoveMessageIDRegistry();
+        CMoveInfoObject info = info();
+        int msgId = registry.register(info);
+        Assert.assertEquals(1, msgId);
+        Assert.assertSame(info, registry.get(msgId));
+        Assert.assertFalse(registry.remove(msgId, info()));
+        Assert.assertTrue(registry.remove(msgId, info));
+        Assert.assertNull(registry.get(msgId));
+    }
+
+    @Test
+    public void testWrapAround() {
+        CMoveMessageIDRegistry registry = new CMoveMessageIDRegistry(CMoveMessageIDRegistry.MAX_MESSAGE_ID - 1);
+        Assert.assertEquals(CMoveMessageIDRegistry.MAX_MESSAGE_ID, registry.register(info()));
+        Assert.assertEquals(1, registry.register(info()));
+
+        registry = new CMoveMessageIDRegistry(Integer.MAX_VALUE);
+        int msgId = registry.register(info());
+        Assert.assertTrue(msgId > 0 && msgId <= CMoveMessageIDRegistry.MAX_MESSAGE_ID);
+        // the counter overflows to a negative value
+        Assert.assertEquals(1, registry.register(info()));
+    }
+
+    @Test
+    public void testExhaustion() {
+        CMoveMessageIDRegistry registry = new CMoveMessageIDRegistry();
+        Set<Integer> msgIds = new HashSet<Integer>();
+        for (int i = 0; i < CMoveMessageIDRegistry.MAX_MESSAGE_ID; i++)
+            Assert.assertTrue(msgIds.add(registry.register(info())));
+        Assert.assertFalse(msgIds.contains(0));
+        Assert.assertEquals(-1, registry.register(info()));
+
+        registry.remove(4711);
+        Assert.assertEquals(4711, registry.register(info()));
+        Assert.assertEquals(-1, registry.register(info()));
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        CMoveMessageIDRegistry registry = new CMoveMessageIDRegistry();
+        registry.register(info());
+        registry.register(info());
+        Assert.assertEquals(0, registry.removeExpired(60000L));
+        Assert.assertEquals(2, registry.size());
+        // registered before now + 1 ms
+        Assert.assertEquals(2, registry.removeExpired(-1L));
+        Assert.assertEquals(0, registry.size());
+    }
+}
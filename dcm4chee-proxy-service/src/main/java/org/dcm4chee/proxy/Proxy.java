@@ -48,6 +48,7 @@ import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -82,13 +83,17 @@ import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
 import org.dcm4chee.proxy.dimse.CEcho;
 import org.dcm4chee.proxy.dimse.CFind;
+import org.dcm4chee.proxy.dimse.CFindCache;
 import org.dcm4chee.proxy.dimse.CGet;
 import org.dcm4chee.proxy.dimse.CMove;
 import org.dcm4chee.proxy.dimse.CStore;
 import org.dcm4chee.proxy.dimse.Mpps;
 import org.dcm4chee.proxy.dimse.StgCmt;
+import org.dcm4chee.proxy.forward.ForwardAssociationPool;
 import org.dcm4chee.proxy.forward.Scheduler;
 import org.dcm4chee.proxy.pix.PIXConsumer;
+import org.dcm4chee.proxy.prefetch.Prefetcher;
+import org.dcm4chee.proxy.utils.ForwardRuleUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -123,9 +128,11 @@ public class Proxy extends DeviceService implements ProxyMBean {
     private final CStore cstore;
     private final StgCmt stgcmt;
     private final CFind cfind;
+    private final CFindCache cfindCache;
     private final CGet cget;
     private final CMove cmove;
     private final Mpps mpps;
+    private final Prefetcher prefetcher;
     private final int restartTimeout = getRestartTimeout();
 
     public Proxy(DicomConfiguration dicomConfiguration,
@@ -149,7 +156,8 @@ public class Proxy extends DeviceService implements ProxyMBean {
         this.cecho = new CEcho();
         this.cstore = new CStore(aeCache, "*");
         this.stgcmt = new StgCmt(aeCache);
-        this.cfind = new CFind(aeCache, pixConsumer,
+        this.cfindCache = new CFindCache();
+        this.cfind = new CFind(aeCache, pixConsumer, cfindCache,
                 "1.2.840.10008.5.1.4.1.2.1.1", "1.2.840.10008.5.1.4.1.2.2.1",
                 "1.2.840.10008.5.1.4.1.2.3.1", "1.2.840.10008.5.1.4.31");
         this.cget = new CGet(aeCache, pixConsumer,
@@ -159,12 +167,40 @@ public class Proxy extends DeviceService implements ProxyMBean {
                 "1.2.840.10008.5.1.4.1.2.1.2", "1.2.840.10008.5.1.4.1.2.2.2",
                 "1.2.840.10008.5.1.4.1.2.3.2");
         this.mpps = new Mpps(device.getDeviceExtension(AuditLogger.class));
+        this.prefetcher = new Prefetcher(device);
         device.setDimseRQHandler(serviceRegistry());
         device.setAssociationHandler(new ProxyAssociationHandler(aeCache));
         setConfigurationStaleTimeout();
         Proxy.instance = this;
     }
 
+    public void notifySpooledCStoreFile(ApplicationEntity ae, String calledAET, File file) {
+        Scheduler scheduler = Proxy.scheduler;
+        if (scheduler != null)
+            scheduler.notifySpooledCStoreFile(ae, calledAET, file);
+    }
+
+    public ForwardAssociationPool getForwardAssociationPool() {
+        Scheduler scheduler = Proxy.scheduler;
+        return scheduler != null ? scheduler.getAssociationPool() : null;
+    }
+
+    /**
+     * Removes cached C-FIND results which may be affected by forwarding data
+     * of patient {@code patientID} and study {@code studyIUID}.
+     */
+    public void invalidateCachedQueries(String patientID, String studyIUID, boolean worklist) {
+        cfindCache.invalidate(patientID, studyIUID, worklist);
+    }
+
+    /**
+     * Schedules the retrieve of prior studies of patient {@code patientID}
+     * from the prefetch archive configured for {@code ae}.
+     */
+    public void prefetchPriors(ApplicationEntity ae, String patientID, String issuer, Set<String> currentStudyIUIDs) {
+        prefetcher.schedule(ae, aeCache, patientID, issuer, currentStudyIUIDs);
+    }
+
     public PIXConsumer getPixConsumer() {
         return pixConsumer;
     }
@@ -186,6 +222,7 @@ public class Proxy extends DeviceService implements ProxyMBean {
         super.start();
         scheduler.start();
         cleanUPScheduler.start();
+        prefetcher.start();
         log(AuditMessages.EventTypeCode.ApplicationStart);
 
     }
@@ -197,6 +234,9 @@ public class Proxy extends DeviceService implements ProxyMBean {
 
         scheduler.stop();
         cleanUPScheduler.stop();
+        prefetcher.stop();
+        device.getDeviceExtension(ProxyDeviceExtension.class).shutdownFrameExtractionPool();
+        pixConsumer.closeConnections();
         super.stop();
         try {
             resetSpoolFiles("shut-down");
@@ -316,8 +356,14 @@ public class Proxy extends DeviceService implements ProxyMBean {
     public void reload() throws Exception {
         scheduler.stop();
         cleanUPScheduler.stop();
-        device.getDeviceExtension(ProxyDeviceExtension.class)
-                .clearTemplatesCache();
+        prefetcher.stop();
+        ProxyDeviceExtension proxyDevExt = device.getDeviceExtension(ProxyDeviceExtension.class);
+        proxyDevExt.shutdownFrameExtractionPool();
+        proxyDevExt.clearTemplatesCache();
+        ForwardRuleUtils.clearDestinationTemplateCache();
+        pixConsumer.clearCache();
+        pixConsumer.closeConnections();
+        cfindCache.clear();
         // Make sure the configuration is re-loaded from the backend
         dicomConfiguration.sync();
         device.reconfigure(dicomConfiguration.findDevice(device.getDeviceName()));
@@ -327,6 +373,7 @@ public class Proxy extends DeviceService implements ProxyMBean {
             device.rebindConnections();
             scheduler.start();
             cleanUPScheduler.start();
+            prefetcher.start();
         }
     }
 
@@ -45,6 +45,7 @@ import java.util.Set;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
+import org.dcm4chee.proxy.metrics.MetricsRS;
 import org.dcm4chee.proxy.stow.StowRS;
 
 /**
@@ -53,10 +54,11 @@ import org.dcm4chee.proxy.stow.StowRS;
 @ApplicationPath("/proxy-application")
 public class ProxyApplication extends Application {
 
-    private static final Set<Class<?>> classes = new HashSet<Class<?>>(1);
+    private static final Set<Class<?>> classes = new HashSet<Class<?>>(2);
 
     public ProxyApplication() {
         classes.add(StowRS.class);
+        classes.add(MetricsRS.class);
     }
     
     @Override
@@ -71,6 +71,8 @@ import org.dcm4chee.proxy.conf.ForwardOption;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.Schedule;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
 import org.dcm4chee.proxy.utils.ForwardRuleUtils;
 import org.slf4j.Logger;
@@ -107,6 +109,15 @@ public class ProxyAssociationHandler extends AssociationHandler {
         this.aeCache = aeCache;
     }
 
+    @Override
+    protected AAssociateAC negotiate(Association as, AAssociateRQ rq)
+            throws IOException {
+        AAssociateAC ac = super.negotiate(as, rq);
+        ProxyMetrics.getInstance().increment(Metric.ASSOCIATIONS_ACCEPTED,
+                rq.getCallingAET());
+        return ac;
+    }
+
     @Override
     protected AAssociateAC makeAAssociateAC(Association as, AAssociateRQ rq,
             UserIdentityAC userIdentity) throws IOException {
@@ -71,6 +71,7 @@ import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
 import org.dcm4chee.proxy.conf.ldap.LdapProxyConfigurationExtension;
 import org.dcm4chee.proxy.conf.prefs.PreferencesProxyConfigurationExtension;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,6 +84,7 @@ public class ProxyServlet extends HttpServlet {
     private static final Logger LOG = LoggerFactory.getLogger(ProxyServlet.class);
 
     private ObjectInstance mbean;
+    private ObjectInstance metricsMBean;
     private DicomConfiguration dicomConfig;
     private HL7Configuration hl7Config;
     private Proxy proxy;
@@ -162,6 +164,8 @@ public class ProxyServlet extends HttpServlet {
             proxy.start();
             ProxyDeviceExtension proxyDev = proxy.getDevice().getDeviceExtension(ProxyDeviceExtension.class);
             mbean = ManagementFactory.getPlatformMBeanServer().registerMBean(proxy, new ObjectName(jmxName));
+            metricsMBean = ManagementFactory.getPlatformMBeanServer().registerMBean(ProxyMetrics.getInstance(),
+                    new ObjectName(new ObjectName(jmxName).getDomain(), "type", "Metrics"));
         } catch (Exception e) {
             if (LOG.isDebugEnabled())
                 e.printStackTrace();
@@ -172,6 +176,12 @@ public class ProxyServlet extends HttpServlet {
 
     @Override
     public void destroy() {
+        if (metricsMBean != null)
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBean.getObjectName());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         if (mbean != null)
             try {
                 ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean.getObjectName());
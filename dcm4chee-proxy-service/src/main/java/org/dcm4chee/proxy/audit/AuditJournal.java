@@ -0,0 +1,530 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.audit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.dcm4chee.proxy.common.AuditDirectory;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects transfer, delete and failure records of forwarded instances and
+ * aggregates them per study until the study is reported by {@link AuditLog}.
+ * Records are queued in a bounded ring buffer and appended in batches to a
+ * journal file in the audit directory, from which pending studies are
+ * restored after a restart. Completed studies stay in the journal until
+ * their audit message was written; the journal is then compacted to one
+ * line per pending or not yet reported study.
+ */
+public class AuditJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditJournal.class);
+
+    private static final String JOURNAL_FILE = "audit.journal";
+    private static final int RING_BUFFER_SIZE = 8192;
+
+    private static final char START = 'S';
+    private static final char INSTANCE = 'I';
+    private static final char CANCEL = 'C';
+    private static final char AGGREGATE = 'A';
+    private static final char REPORTING = 'R';
+
+    private static final ConcurrentHashMap<String, AuditJournal> journals =
+            new ConcurrentHashMap<String, AuditJournal>();
+
+    private final File file;
+    private final ArrayBlockingQueue<String[]> ringBuffer = new ArrayBlockingQueue<String[]>(RING_BUFFER_SIZE);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Study> studies = new HashMap<String, Study>();
+    private final List<Study> reporting = new ArrayList<Study>();
+    private Writer out;
+    private boolean dirty;
+
+    private AuditJournal(File file) {
+        this.file = file;
+    }
+
+    public static AuditJournal forAE(ProxyAEExtension proxyAEE) throws IOException {
+        File file = new File(proxyAEE.getAuditDirectoryPath(), JOURNAL_FILE);
+        String path = file.getAbsolutePath();
+        AuditJournal journal = journals.get(path);
+        if (journal == null) {
+            journal = new AuditJournal(file);
+            AuditJournal prev = journals.putIfAbsent(path, journal);
+            if (prev != null)
+                journal = prev;
+        }
+        return journal;
+    }
+
+    /**
+     * Records the start of the transfer, deletion or failure of instances of
+     * a study. Only the first start record of a pending study is effective.
+     */
+    public void start(AuditDirectory auditDir, String callingAET, String calledAET, String studyIUID,
+            Integer retry, String patientID, String hostname, String proxyHostname) {
+        append(record(START, auditDir, callingAET, calledAET, studyIUID, retry,
+                String.valueOf(System.currentTimeMillis()), patientID, hostname, proxyHostname));
+    }
+
+    public Entry instance(AuditDirectory auditDir, String callingAET, String calledAET, String studyIUID,
+            Integer retry, String sopClassUID, long size) {
+        String[] record = record(INSTANCE, auditDir, callingAET, calledAET, studyIUID, retry,
+                String.valueOf(System.currentTimeMillis()), sopClassUID, String.valueOf(size));
+        append(record);
+        return new Entry(record);
+    }
+
+    /**
+     * Returns the pending studies without any record for {@code idleMillis}
+     * and studies whose audit message failed before. The returned studies
+     * remain in the journal until they are passed to {@link #reported}, and
+     * are not returned again until then.
+     */
+    public List<Study> takeCompleted(long idleMillis) {
+        List<Study> completed = new ArrayList<Study>();
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            drain();
+            for (Iterator<Study> iter = studies.values().iterator(); iter.hasNext();) {
+                Study study = iter.next();
+                if (now > study.lastUpdate + idleMillis) {
+                    iter.remove();
+                    dirty = true;
+                    if (study.instances > 0)
+                        reporting.add(study);
+                }
+            }
+            for (Study study : reporting)
+                if (!study.inProgress) {
+                    study.inProgress = true;
+                    completed.add(study);
+                }
+            if (dirty)
+                compact();
+        } finally {
+            lock.unlock();
+        }
+        return completed;
+    }
+
+    /**
+     * Removes the studies of {@code completed} from the journal whose audit
+     * message was written; the others are returned again by the next
+     * {@link #takeCompleted}.
+     */
+    public void reported(List<Study> completed, List<Study> reported) {
+        lock.lock();
+        try {
+            for (Study study : completed)
+                study.inProgress = false;
+            if (reported.isEmpty())
+                return;
+
+            drain();
+            reporting.removeAll(reported);
+            compact();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(String[] record) {
+        while (!ringBuffer.offer(record)) {
+            lock.lock();
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drain() {
+        if (out == null) {
+            if (file.exists())
+                replay();
+            openWriter();
+        }
+        List<String[]> batch = new ArrayList<String[]>();
+        while (ringBuffer.drainTo(batch) > 0) {
+            try {
+                for (String[] record : batch)
+                    writeRecord(out, record);
+                out.flush();
+            } catch (IOException e) {
+                LOG.error("Error writing audit journal {}: {}", file, e.getMessage());
+                if (LOG.isDebugEnabled())
+                    e.printStackTrace();
+            }
+            for (String[] record : batch)
+                apply(record);
+            batch.clear();
+            dirty = true;
+        }
+    }
+
+    private void openWriter() {
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        } catch (IOException e) {
+            LOG.error("Error opening audit journal {}: {}", file, e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+            out = new NullWriter();
+        }
+    }
+
+    private void replay() {
+        BufferedReader in = null;
+        int count = 0;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null)
+                if (line.length() > 0) {
+                    apply(line.split("\t", -1));
+                    count++;
+                }
+        } catch (Exception e) {
+            LOG.error("Error reading audit journal {} after {} records: {}",
+                    new Object[] { file, count, e.getMessage() });
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+        }
+        LOG.info("Restored {} pending studies from {} records of audit journal {}",
+                new Object[] { studies.size(), count, file });
+    }
+
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            out.close();
+            Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            try {
+                for (Study study : studies.values())
+                    writeRecord(w, study.toRecord(AGGREGATE));
+                for (Study study : reporting)
+                    writeRecord(w, study.toRecord(REPORTING));
+            } finally {
+                w.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            dirty = false;
+        } catch (IOException e) {
+            LOG.error("Error compacting audit journal {}: {}", file, e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        }
+        openWriter();
+    }
+
+    private void apply(String[] record) {
+        if (record[0].charAt(0) == REPORTING) {
+            Study study = new Study(record);
+            study.restore(record);
+            reporting.add(study);
+            return;
+        }
+        String key = keyOf(record);
+        Study study = studies.get(key);
+        if (study == null) {
+            if (record[0].charAt(0) == CANCEL)
+                return;
+            study = new Study(record);
+            studies.put(key, study);
+        }
+        switch (record[0].charAt(0)) {
+        case START:
+            study.updateTime(Long.parseLong(record[6]));
+            if (study.patientID == null) {
+                study.patientID = record[7];
+                study.hostname = record[8];
+                study.proxyHostname = record[9];
+            }
+            break;
+        case INSTANCE:
+            study.updateTime(Long.parseLong(record[6]));
+            study.add(record[7], Long.parseLong(record[8]), 1);
+            break;
+        case CANCEL:
+            study.add(record[7], -Long.parseLong(record[8]), -1);
+            break;
+        case AGGREGATE:
+            study.restore(record);
+            break;
+        default:
+            LOG.warn("Ignore unknown audit journal record type {}", record[0]);
+        }
+    }
+
+    private static String keyOf(String[] record) {
+        return record[1] + '\t' + record[2] + '\t' + record[3] + '\t' + record[4] + '\t' + record[5];
+    }
+
+    private static String[] record(char type, AuditDirectory auditDir, String callingAET, String calledAET,
+            String studyIUID, Integer retry, String... values) {
+        String[] record = new String[6 + values.length];
+        record[0] = String.valueOf(type);
+        record[1] = auditDir.name();
+        record[2] = callingAET;
+        record[3] = calledAET;
+        record[4] = studyIUID;
+        record[5] = auditDir == AuditDirectory.FAILED && retry != null ? retry.toString() : "";
+        System.arraycopy(values, 0, record, 6, values.length);
+        for (int i = 1; i < record.length; i++)
+            record[i] = sanitize(record[i]);
+        return record;
+    }
+
+    private static String sanitize(String s) {
+        if (s == null)
+            return "";
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static void writeRecord(Writer w, String[] record) throws IOException {
+        for (int i = 0; i < record.length; i++) {
+            if (i > 0)
+                w.write('\t');
+            w.write(record[i]);
+        }
+        w.write('\n');
+    }
+
+    /**
+     * Handle to an instance record, used to revoke the record if forwarding
+     * the instance eventually fails.
+     */
+    public class Entry {
+
+        private final String[] record;
+        private boolean cancelled;
+
+        private Entry(String[] record) {
+            this.record = record;
+        }
+
+        public synchronized void cancel() {
+            if (cancelled)
+                return;
+            cancelled = true;
+            String[] cancel = record.clone();
+            cancel[0] = String.valueOf(CANCEL);
+            cancel[6] = String.valueOf(System.currentTimeMillis());
+            append(cancel);
+        }
+    }
+
+    /**
+     * Pending audit information of one study.
+     */
+    public static class Study {
+
+        private final AuditDirectory auditDir;
+        private final String callingAET;
+        private final String calledAET;
+        private final String studyIUID;
+        private final String retry;
+        private String patientID;
+        private String hostname;
+        private String proxyHostname;
+        private long totalSize;
+        private int instances;
+        private long t1, t2;
+        private long lastUpdate;
+        private boolean inProgress;
+        private final Map<String, Integer> sopClassUIDs = new HashMap<String, Integer>();
+
+        private Study(String[] record) {
+            auditDir = AuditDirectory.valueOf(record[1]);
+            callingAET = record[2];
+            calledAET = record[3];
+            studyIUID = record[4];
+            retry = record[5];
+        }
+
+        private void updateTime(long time) {
+            t1 = (t1 == 0 || t1 > time) ? time : t1;
+            t2 = (t2 == 0 || t2 < time) ? time : t2;
+            lastUpdate = Math.max(lastUpdate, time);
+        }
+
+        private void add(String sopClassUID, long size, int count) {
+            totalSize += size;
+            instances += count;
+            Integer n = sopClassUIDs.get(sopClassUID);
+            n = (n == null ? 0 : n) + count;
+            if (n > 0)
+                sopClassUIDs.put(sopClassUID, n);
+            else
+                sopClassUIDs.remove(sopClassUID);
+        }
+
+        private String[] toRecord(char type) {
+            StringBuilder cuids = new StringBuilder();
+            for (Map.Entry<String, Integer> e : sopClassUIDs.entrySet()) {
+                if (cuids.length() > 0)
+                    cuids.append(';');
+                cuids.append(e.getKey()).append(':').append(e.getValue());
+            }
+            return new String[] { String.valueOf(type), auditDir.name(), callingAET, calledAET, studyIUID,
+                    retry, String.valueOf(t1), String.valueOf(t2), String.valueOf(lastUpdate),
+                    sanitize(patientID), sanitize(hostname), sanitize(proxyHostname), String.valueOf(totalSize),
+                    String.valueOf(instances), cuids.toString() };
+        }
+
+        private void restore(String[] record) {
+            t1 = Long.parseLong(record[6]);
+            t2 = Long.parseLong(record[7]);
+            lastUpdate = Long.parseLong(record[8]);
+            patientID = record[9];
+            hostname = record[10];
+            proxyHostname = record[11];
+            totalSize = Long.parseLong(record[12]);
+            instances = Integer.parseInt(record[13]);
+            sopClassUIDs.clear();
+            if (record[14].length() > 0)
+                for (String cuid : record[14].split(";")) {
+                    int i = cuid.lastIndexOf(':');
+                    sopClassUIDs.put(cuid.substring(0, i), Integer.valueOf(cuid.substring(i + 1)));
+                }
+        }
+
+        public AuditDirectory getAuditDirectory() {
+            return auditDir;
+        }
+
+        public String getCallingAET() {
+            return callingAET;
+        }
+
+        public String getCalledAET() {
+            return calledAET;
+        }
+
+        public String getStudyIUID() {
+            return studyIUID;
+        }
+
+        public String getRetry() {
+            return retry;
+        }
+
+        public String getPatientID() {
+            return patientID;
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+
+        public String getProxyHostname() {
+            return proxyHostname;
+        }
+
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        public int getInstances() {
+            return instances;
+        }
+
+        public long getFirstTime() {
+            return t1;
+        }
+
+        public long getLastTime() {
+            return t2;
+        }
+
+        public Set<String> getSOPClassUIDs() {
+            return sopClassUIDs.keySet();
+        }
+    }
+
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
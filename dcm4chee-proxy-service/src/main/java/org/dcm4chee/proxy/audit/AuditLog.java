@@ -45,10 +45,12 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -89,6 +91,8 @@ public class AuditLog {
             return;
 
         try {
+            scanJournal(ae, proxyAEE);
+            // log files written by earlier versions
             File failedPath = proxyAEE.getFailedAuditDirectoryPath();
             for (String calledAET : failedPath.list())
                 scanCalledAETDir(ae, new File(failedPath, calledAET), AuditDirectory.FAILED);
@@ -105,6 +109,76 @@ public class AuditLog {
         }
     }
 
+    private void scanJournal(final ApplicationEntity ae, ProxyAEExtension proxyAEE) throws IOException {
+        ProxyDeviceExtension proxyDev = ae.getDevice().getDeviceExtension(ProxyDeviceExtension.class);
+        final AuditJournal journal = AuditJournal.forAE(proxyAEE);
+        final List<AuditJournal.Study> studies = journal.takeCompleted(proxyDev.getSchedulerInterval() * 1000L * 2);
+        if (studies.isEmpty())
+            return;
+
+        ae.getDevice().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<AuditJournal.Study> reported = new ArrayList<AuditJournal.Study>(studies.size());
+                try {
+                    for (AuditJournal.Study study : studies)
+                        if (writeLogMessage(ae, study))
+                            reported.add(study);
+                } finally {
+                    journal.reported(studies, reported);
+                }
+            }
+        });
+    }
+
+    private boolean writeLogMessage(ApplicationEntity ae, AuditJournal.Study study) {
+        Log log = new Log();
+        log.files = study.getInstances() + 1;
+        log.totalSize = study.getTotalSize();
+        log.t1 = study.getFirstTime();
+        log.t2 = study.getLastTime();
+        log.patientID = study.getPatientID();
+        log.hostname = study.getHostname();
+        log.proxyHostname = study.getProxyHostname();
+        log.sopclassuid.addAll(study.getSOPClassUIDs());
+        String studyIUID = study.getStudyIUID();
+        String callingAET = study.getCallingAET();
+        String calledAET = study.getCalledAET();
+        Calendar timeStamp = new GregorianCalendar();
+        timeStamp.setTimeInMillis(log.t2);
+        AuditMessage msg;
+        try {
+            switch (study.getAuditDirectory()) {
+            case TRANSFERRED:
+                writeTransferredServerLogMessage(log, log.totalSize / 1048576F, (log.t2 - log.t1) / 1000F,
+                        studyIUID, callingAET, calledAET);
+                msg = createAuditMessage(ae, log, studyIUID, calledAET, log.hostname, callingAET, timeStamp,
+                        EventID.DICOMInstancesTransferred, EventActionCode.Read, EventOutcomeIndicator.Success);
+                break;
+            case DELETED:
+                writeDeleteServerLogMessage(log, studyIUID, calledAET);
+                msg = createAuditMessage(ae, log, studyIUID, ae.getAETitle(), ae.getConnections().get(0).getHostname(),
+                        callingAET, timeStamp, EventID.DICOMInstancesAccessed, EventActionCode.Delete,
+                        EventOutcomeIndicator.Success);
+                break;
+            default:
+                writeFailedServerLogMessage(log, studyIUID, callingAET, calledAET, study.getRetry());
+                msg = createAuditMessage(ae, log, studyIUID, calledAET, log.hostname, callingAET, timeStamp,
+                        EventID.DICOMInstancesTransferred, EventActionCode.Read, EventOutcomeIndicator.SeriousFailure);
+                break;
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("AuditMessage: " + AuditMessages.toXML(msg));
+            logger.write(timeStamp, msg);
+            return true;
+        } catch (Exception e) {
+            LOG.error("Failed to write audit log message: " + e.getMessage());
+            if(LOG.isDebugEnabled())
+                e.printStackTrace();
+            return false;
+        }
+    }
+
     private void scanCalledAETDir(ApplicationEntity ae, File calledAETDir, AuditDirectory auditDir) {
         for (String callingAET : calledAETDir.list()) {
             File callingAETDir = new File(calledAETDir.getPath(), callingAET);
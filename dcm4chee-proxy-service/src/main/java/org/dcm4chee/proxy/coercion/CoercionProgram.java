@@ -0,0 +1,375 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.coercion;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.VR;
+
+/**
+ * Attribute coercion compiled from a short list of operations instead of an
+ * XSL style sheet. It modifies the data set directly, without a SAX
+ * serialization of the whole data set.
+ * 
+ * A coercion program is configured as URI of the attribute coercion, e.g.
+ * 
+ * <pre>
+ * coerce:prefix(PatientID,"ACME-");set(InstitutionName,"ACME Hospital");remove(00091010)
+ * coerce:if(Modality,"CT|MR") set(00091010:LO,"CROSS-SECTIONAL");hashuid(StudyInstanceUID)
+ * </pre>
+ * 
+ * Statements are separated by {@code ;} and may start with a condition
+ * {@code if(tag)} (tag has a value) or {@code if(tag,regex)} (value matches
+ * the regular expression). Tags are given as keyword or as eight hex digits,
+ * followed by {@code :VR} for private attributes whose value is set. An
+ * existing attribute keeps its VR. Supported operations are:
+ * <ul>
+ * <li>{@code set(tag,value)}</li>
+ * <li>{@code remove(tag)}</li>
+ * <li>{@code copy(fromTag,toTag)}</li>
+ * <li>{@code prefix(tag,value)} and {@code suffix(tag,value)}</li>
+ * <li>{@code replace(tag,regex,replacement)}</li>
+ * <li>{@code hashuid(tag)}, replaces the UID by a name based UID derived
+ * from it</li>
+ * </ul>
+ * Values are quoted if they contain {@code , ; ( )} or leading or trailing
+ * spaces.
+ */
+public class CoercionProgram {
+
+    public static final String URI_SCHEME = "coerce:";
+
+    private static final ConcurrentHashMap<String, CoercionProgram> cache =
+            new ConcurrentHashMap<String, CoercionProgram>();
+
+    private enum Opcode {
+        SET(2), REMOVE(1), COPY(2), PREFIX(2), SUFFIX(2), REPLACE(3), HASHUID(1);
+
+        final int numArgs;
+
+        Opcode(int numArgs) {
+            this.numArgs = numArgs;
+        }
+    }
+
+    private static final class Statement {
+        int conditionTag = -1;
+        Pattern condition;
+        Opcode opcode;
+        int tag;
+        VR vr;
+        int tag2;
+        VR vr2;
+        String value;
+        Pattern pattern;
+    }
+
+    private final Statement[] statements;
+
+    private CoercionProgram(Statement[] statements) {
+        this.statements = statements;
+    }
+
+    public static boolean isCoercionProgram(String uri) {
+        return uri != null && uri.startsWith(URI_SCHEME);
+    }
+
+    /**
+     * Returns the compiled program for an attribute coercion URI starting
+     * with {@link #URI_SCHEME}.
+     * 
+     * @throws IllegalArgumentException
+     *             if the program cannot be compiled
+     */
+    public static CoercionProgram forURI(String uri) {
+        CoercionProgram program = cache.get(uri);
+        if (program == null) {
+            program = compile(uri.substring(URI_SCHEME.length()));
+            CoercionProgram prev = cache.putIfAbsent(uri, program);
+            if (prev != null)
+                program = prev;
+        }
+        return program;
+    }
+
+    public static CoercionProgram compile(String source) {
+        List<Statement> statements = new ArrayList<Statement>();
+        Parser parser = new Parser(source);
+        parser.skipSpaces();
+        while (!parser.atEnd()) {
+            statements.add(parser.statement());
+            parser.skipSpaces();
+            if (!parser.atEnd())
+                parser.expect(';');
+            parser.skipSpaces();
+        }
+        return new CoercionProgram(statements.toArray(new Statement[statements.size()]));
+    }
+
+    /**
+     * Applies the program to {@code attrs}, which is modified in place.
+     */
+    public void apply(Attributes attrs) {
+        for (Statement st : statements) {
+            if (st.conditionTag != -1) {
+                String s = attrs.getString(st.conditionTag);
+                if (s == null || st.condition != null && !st.condition.matcher(s).matches())
+                    continue;
+            }
+            String s;
+            switch (st.opcode) {
+            case SET:
+                attrs.setString(st.tag, vrOf(attrs, st.tag, st.vr), st.value);
+                break;
+            case REMOVE:
+                attrs.remove(st.tag);
+                break;
+            case COPY:
+                String[] ss = attrs.getStrings(st.tag);
+                if (ss != null)
+                    attrs.setString(st.tag2, vrOf(attrs, st.tag2, st.vr2), ss);
+                break;
+            case PREFIX:
+                if ((s = attrs.getString(st.tag)) != null)
+                    attrs.setString(st.tag, vrOf(attrs, st.tag, st.vr), st.value.concat(s));
+                break;
+            case SUFFIX:
+                if ((s = attrs.getString(st.tag)) != null)
+                    attrs.setString(st.tag, vrOf(attrs, st.tag, st.vr), s.concat(st.value));
+                break;
+            case REPLACE:
+                if ((s = attrs.getString(st.tag)) != null)
+                    attrs.setString(st.tag, vrOf(attrs, st.tag, st.vr), st.pattern.matcher(s).replaceAll(st.value));
+                break;
+            case HASHUID:
+                if ((s = attrs.getString(st.tag)) != null)
+                    attrs.setString(st.tag, VR.UI, hashUID(s));
+                break;
+            }
+        }
+    }
+
+    private static VR vrOf(Attributes attrs, int tag, VR vr) {
+        VR existing = attrs.getVR(tag);
+        return existing != null ? existing : vr;
+    }
+
+    static String hashUID(String uid) {
+        UUID uuid = UUID.nameUUIDFromBytes(uid.getBytes(StandardCharsets.US_ASCII));
+        byte[] b = ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+        return "2.25." + new BigInteger(1, b);
+    }
+
+    private static final class Parser {
+
+        final String s;
+        int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        boolean atEnd() {
+            return pos >= s.length();
+        }
+
+        void skipSpaces() {
+            while (!atEnd() && Character.isWhitespace(s.charAt(pos)))
+                pos++;
+        }
+
+        void expect(char c) {
+            skipSpaces();
+            if (atEnd() || s.charAt(pos) != c)
+                throw error("'" + c + "' expected");
+            pos++;
+        }
+
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException(msg + " at position " + pos + " of coercion program: " + s);
+        }
+
+        String name() {
+            skipSpaces();
+            int start = pos;
+            while (!atEnd() && Character.isLetter(s.charAt(pos)))
+                pos++;
+            if (start == pos)
+                throw error("operation expected");
+            return s.substring(start, pos);
+        }
+
+        List<String> args() {
+            List<String> args = new ArrayList<String>(3);
+            expect('(');
+            args.add(arg());
+            skipSpaces();
+            while (!atEnd() && s.charAt(pos) == ',') {
+                pos++;
+                args.add(arg());
+                skipSpaces();
+            }
+            expect(')');
+            return args;
+        }
+
+        String arg() {
+            skipSpaces();
+            if (!atEnd() && s.charAt(pos) == '"') {
+                StringBuilder sb = new StringBuilder();
+                pos++;
+                while (!atEnd() && s.charAt(pos) != '"') {
+                    char c = s.charAt(pos++);
+                    if (c == '\\' && !atEnd() && s.charAt(pos) == '"')
+                        c = s.charAt(pos++);
+                    sb.append(c);
+                }
+                if (atEnd())
+                    throw error("unterminated string");
+                pos++;
+                return sb.toString();
+            }
+            int start = pos;
+            while (!atEnd() && ",;()".indexOf(s.charAt(pos)) == -1)
+                pos++;
+            return s.substring(start, pos).trim();
+        }
+
+        Statement statement() {
+            Statement st = new Statement();
+            String name = name();
+            if (name.equals("if")) {
+                List<String> cond = args();
+                if (cond.size() > 2)
+                    throw error("if expects 1 or 2 arguments");
+                st.conditionTag = tag(cond.get(0));
+                if (cond.size() == 2)
+                    st.condition = pattern(cond.get(1));
+                name = name();
+            }
+            try {
+                st.opcode = Opcode.valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw error("unknown operation " + name);
+            }
+            List<String> args = args();
+            if (args.size() != st.opcode.numArgs)
+                throw error(name + " expects " + st.opcode.numArgs + " argument(s)");
+            st.tag = tag(args.get(0));
+            st.vr = vr(args.get(0), st.tag);
+            switch (st.opcode) {
+            case COPY:
+                st.tag2 = tag(args.get(1));
+                st.vr2 = valueVR(args.get(1), st.tag2);
+                break;
+            case REPLACE:
+                st.vr = valueVR(args.get(0), st.tag);
+                st.pattern = pattern(args.get(1));
+                st.value = args.get(2);
+                break;
+            case SET:
+            case PREFIX:
+            case SUFFIX:
+                st.vr = valueVR(args.get(0), st.tag);
+                st.value = args.get(1);
+                break;
+            default:
+                break;
+            }
+            return st;
+        }
+
+        Pattern pattern(String regex) {
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw error("invalid regular expression " + regex);
+            }
+        }
+
+        int tag(String arg) {
+            int colon = arg.indexOf(':');
+            String tag = colon != -1 ? arg.substring(0, colon) : arg;
+            if (tag.length() == 8)
+                try {
+                    return (int) Long.parseLong(tag, 16);
+                } catch (NumberFormatException e) {
+                    // not a hex tag, try as keyword
+                }
+            int value = ElementDictionary.tagForKeyword(tag, null);
+            if (value == -1)
+                throw error("unknown attribute " + tag);
+            return value;
+        }
+
+        /**
+         * Returns the VR of an attribute whose value is set, which must be
+         * given explicitly for private attributes.
+         */
+        VR valueVR(String arg, int tag) {
+            VR vr = vr(arg, tag);
+            if (vr == VR.UN && arg.indexOf(':') == -1)
+                throw error("VR of attribute " + arg + " required");
+            return vr;
+        }
+
+        VR vr(String arg, int tag) {
+            int colon = arg.indexOf(':');
+            if (colon == -1)
+                return ElementDictionary.vrOf(tag, null);
+            try {
+                return VR.valueOf(arg.substring(colon + 1));
+            } catch (IllegalArgumentException e) {
+                throw error("unknown VR " + arg.substring(colon + 1));
+            }
+        }
+    }
+}
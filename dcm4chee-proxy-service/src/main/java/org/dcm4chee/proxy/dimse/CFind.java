@@ -40,12 +40,17 @@ package org.dcm4chee.proxy.dimse;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.dcm4che3.conf.api.ApplicationEntityCache;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.Status;
@@ -54,8 +59,12 @@ import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.AbstractDicomService;
 import org.dcm4che3.net.service.DicomService;
 import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.proxy.Proxy;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.pix.PIXConsumer;
 import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
@@ -73,11 +82,14 @@ public class CFind extends AbstractDicomService {
 
     private PIXConsumer pixConsumer;
     private ApplicationEntityCache aeCache;
+    private CFindCache cfindCache;
 
-    public CFind(ApplicationEntityCache aeCache, PIXConsumer pixConsumer, String... sopClasses) {
+    public CFind(ApplicationEntityCache aeCache, PIXConsumer pixConsumer, CFindCache cfindCache,
+            String... sopClasses) {
         super(sopClasses);
         this.aeCache = aeCache;
         this.pixConsumer = pixConsumer;
+        this.cfindCache = cfindCache;
     }
 
     @Override
@@ -89,10 +101,26 @@ public class CFind extends AbstractDicomService {
         ApplicationEntity ae = asAccepted.getApplicationEntity();
         ProxyAEExtension proxyAEE = ae.getAEExtension(ProxyAEExtension.class);
         data = AttributeCoercionUtils.coerceDataset(proxyAEE, asAccepted, Role.SCU, Dimse.C_FIND_RQ, data, rq);
+        if (UID.ModalityWorklistInformationModelFIND.equals(rq.getString(dimse.tagOfSOPClassUID())))
+            prefetchPriors(ae, data);
         Object forwardAssociationProperty = asAccepted.getProperty(ProxyAEExtension.FORWARD_ASSOCIATION);
         if (forwardAssociationProperty == null) {
+            String cuid = rq.getString(dimse.tagOfSOPClassUID());
             List<ForwardRule> forwardRules = ForwardRuleUtils.filterForwardRulesOnDimseRQ(
-                    proxyAEE.getCurrentForwardRules(asAccepted), rq.getString(dimse.tagOfSOPClassUID()), dimse);
+                    proxyAEE.getCurrentForwardRules(asAccepted), cuid, dimse);
+            ProxyDeviceExtension proxyDevExt = ae.getDevice().getDeviceExtension(ProxyDeviceExtension.class);
+            int cacheTimeout = proxyDevExt.getQueryCacheTimeout(cuid);
+            String cacheKey = cacheTimeout > 0 ? cacheKeyOf(asAccepted, cuid, forwardRules, data) : null;
+            if (cacheKey != null) {
+                Attributes[] matches = cfindCache.get(cacheKey);
+                if (matches != null) {
+                    ProxyMetrics.getInstance().increment(Metric.QUERY_CACHE, "hit");
+                    LOG.debug("{}: return {} cached matches", asAccepted, matches.length);
+                    writeCachedMatches(asAccepted, pc, rq, matches);
+                    return;
+                }
+                ProxyMetrics.getInstance().increment(Metric.QUERY_CACHE, "miss");
+            }
             HashMap<String, Association> fwdAssocs = ForwardConnectionUtils.openForwardAssociations(proxyAEE,
                     asAccepted, forwardRules, data, aeCache);
             if (fwdAssocs.isEmpty())
@@ -100,8 +128,11 @@ public class CFind extends AbstractDicomService {
 
             try {
                 asAccepted.setProperty(ProxyAEExtension.FORWARD_ASSOCIATION, fwdAssocs);
-                new ForwardDimseRQ(asAccepted, pc, rq, data, dimse, pixConsumer, aeCache, fwdAssocs.values().toArray(
-                        new Association[fwdAssocs.size()])).execute();
+                ForwardDimseRQ fwdDimseRQ = new ForwardDimseRQ(asAccepted, pc, rq, data, dimse, pixConsumer, aeCache,
+                        fwdAssocs.values().toArray(new Association[fwdAssocs.size()]));
+                if (cacheKey != null)
+                    fwdDimseRQ.cacheMatches(cfindCache, cacheKey, cacheTimeout, proxyDevExt.getQueryCacheMaxMatches());
+                fwdDimseRQ.execute();
             } catch (InterruptedException e) {
                 LOG.error("Error forwarding C-FIND request: " + e.getMessage());
                 if(LOG.isDebugEnabled())
@@ -127,4 +158,41 @@ public class CFind extends AbstractDicomService {
             }
     }
 
+    /**
+     * Worklist queries for a particular patient indicate that a procedure for
+     * the patient is about to start.
+     */
+    private static void prefetchPriors(ApplicationEntity ae, Attributes keys) {
+        String patientID = keys.getString(Tag.PatientID);
+        if (patientID == null || patientID.indexOf('*') >= 0 || patientID.indexOf('?') >= 0
+                || Proxy.getInstance() == null)
+            return;
+
+        Set<String> studyIUIDs = new HashSet<String>();
+        String studyIUID = keys.getString(Tag.StudyInstanceUID);
+        if (studyIUID != null)
+            studyIUIDs.add(studyIUID);
+        Proxy.getInstance().prefetchPriors(ae, patientID, keys.getString(Tag.IssuerOfPatientID), studyIUIDs);
+    }
+
+    private String cacheKeyOf(Association as, String cuid, List<ForwardRule> forwardRules, Attributes keys) {
+        Set<String> destinationAETs = new HashSet<String>();
+        try {
+            for (ForwardRule rule : forwardRules)
+                destinationAETs.addAll(ForwardRuleUtils.getDestinationAETsFromForwardRule(as, rule, keys));
+        } catch (Exception e) {
+            LOG.debug("{}: cannot determine destinations, do not cache C-FIND: {}", as, e.getMessage());
+            return null;
+        }
+        return destinationAETs.isEmpty() ? null : CFindCache.keyOf(as.getRemoteAET(), as.getCalledAET(), cuid,
+                destinationAETs, keys);
+    }
+
+    private void writeCachedMatches(Association as, PresentationContext pc, Attributes rq, Attributes[] matches)
+            throws IOException {
+        for (Attributes match : matches)
+            as.writeDimseRSP(pc, Commands.mkCFindRSP(rq, Status.Pending), match);
+        as.writeDimseRSP(pc, Commands.mkCFindRSP(rq, Status.Success));
+    }
+
 }
@@ -0,0 +1,204 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.dimse;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+
+/**
+ * Caches the matches returned for C-FIND requests by the identifier, the
+ * Calling and Called AET, the SOP Class and the destinations the request is
+ * forwarded to. The total number of cached matches is bounded; least recently used
+ * entries are evicted first. Entries which may be affected by a forwarded
+ * MPPS (Modality Worklist) or C-STORE (Query/Retrieve) for a patient or study
+ * are invalidated.
+ */
+public class CFindCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int cachedMatches;
+
+    private static class Entry {
+
+        final boolean worklist;
+        final String patientID;
+        final String[] studyIUIDs;
+        final Attributes[] matches;
+        final long expires;
+
+        Entry(String cuid, Attributes keys, Attributes[] matches, long expires) {
+            this.worklist = UID.ModalityWorklistInformationModelFIND.equals(cuid);
+            this.patientID = keys.getString(Tag.PatientID);
+            this.studyIUIDs = keys.getStrings(Tag.StudyInstanceUID);
+            this.matches = matches;
+            this.expires = expires;
+        }
+
+        boolean isAffectedBy(String pid, String studyIUID, boolean mwl) {
+            return worklist == mwl
+                    && (pid == null || isUniversalOrWildcard(patientID) || patientID.equals(pid))
+                    && (studyIUID == null || studyIUIDs == null || studyIUIDs.length == 0
+                        || contains(studyIUIDs, studyIUID));
+        }
+    }
+
+    /**
+     * Returns the cache key of a C-FIND request or {@code null}, if the
+     * identifier cannot be normalized.
+     */
+    public static String keyOf(String callingAET, String calledAET, String cuid,
+            Collection<String> destinationAETs, Attributes keys) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(callingAET).append('\0').append(calledAET).append('\0').append(cuid);
+        for (String destinationAET : new TreeSet<String>(destinationAETs))
+            sb.append('\0').append(destinationAET);
+        sb.append('\0');
+        return normalize(keys, sb) ? sb.toString() : null;
+    }
+
+    public Attributes[] get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null)
+                return null;
+            if (entry.expires <= System.currentTimeMillis()) {
+                remove(key);
+                return null;
+            }
+            return entry.matches;
+        }
+    }
+
+    public void put(String key, String cuid, Attributes keys, List<Attributes> matches, int timeout,
+            int maxMatches) {
+        if (matches.size() > maxMatches)
+            return;
+
+        Entry entry = new Entry(cuid, keys, matches.toArray(new Attributes[matches.size()]),
+                System.currentTimeMillis() + timeout * 1000L);
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            cachedMatches += entry.matches.length;
+            for (Iterator<Entry> iter = entries.values().iterator(); cachedMatches > maxMatches;) {
+                cachedMatches -= iter.next().matches.length;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries which may contain or miss matches for patient
+     * {@code patientID} and study {@code studyIUID}. {@code null} values
+     * match any patient or study.
+     */
+    public void invalidate(String patientID, String studyIUID, boolean worklist) {
+        synchronized (entries) {
+            for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext();) {
+                Entry entry = iter.next();
+                if (entry.isAffectedBy(patientID, studyIUID, worklist)) {
+                    cachedMatches -= entry.matches.length;
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            cachedMatches = 0;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            cachedMatches -= entry.matches.length;
+    }
+
+    private static boolean normalize(Attributes attrs, StringBuilder sb) {
+        for (int tag : attrs.tags()) {
+            VR vr = attrs.getVR(tag);
+            sb.append(TagUtils.toHexString(tag)).append(vr);
+            if (vr == VR.SQ) {
+                Sequence seq = attrs.getSequence(tag);
+                sb.append('[');
+                if (seq != null)
+                    for (Attributes item : seq) {
+                        sb.append('{');
+                        if (!normalize(item, sb))
+                            return false;
+                        sb.append('}');
+                    }
+                sb.append(']');
+            } else if (vr.isInlineBinary()) {
+                return false;
+            } else {
+                String[] values = attrs.getStrings(tag);
+                sb.append('=');
+                if (values != null)
+                    sb.append(StringUtils.concat(values, '\\'));
+            }
+            sb.append('\0');
+        }
+        return true;
+    }
+
+    private static boolean isUniversalOrWildcard(String value) {
+        return value == null || value.isEmpty() || value.indexOf('*') >= 0 || value.indexOf('?') >= 0;
+    }
+
+    private static boolean contains(String[] values, String value) {
+        for (String s : values)
+            if (s.equals(value))
+                return true;
+        return false;
+    }
+}
@@ -40,10 +40,12 @@ package org.dcm4chee.proxy.dimse;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import org.dcm4che3.conf.api.ApplicationEntityCache;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Dimse;
@@ -53,6 +55,8 @@ import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.AbstractDicomService;
 import org.dcm4che3.net.service.DicomService;
 import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4chee.proxy.Proxy;
+import org.dcm4chee.proxy.conf.ForwardOption;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.pix.PIXConsumer;
@@ -91,6 +95,12 @@ public class CMove extends AbstractDicomService {
         if (forwardAssociationProperty == null) {
             List<ForwardRule> forwardRules = ForwardRuleUtils.filterForwardRulesOnDimseRQ(
                     proxyAEE.getCurrentForwardRules(asAccepted), rq.getString(dimse.tagOfSOPClassUID()), dimse);
+            LinkedHashMap<String, String> bridgedAETs = bridgedAETs(asAccepted, proxyAEE, forwardRules, rq, data);
+            if (bridgedAETs != null) {
+                new RetrieveBridge(aeCache, Proxy.getInstance().getForwardAssociationPool(), asAccepted, pc, rq, data,
+                        bridgedAETs).execute();
+                return;
+            }
             HashMap<String, Association> fwdAssocs = ForwardConnectionUtils.openForwardAssociations(proxyAEE,
                     asAccepted, forwardRules, data, aeCache);
             if (fwdAssocs.isEmpty())
@@ -124,4 +134,32 @@ public class CMove extends AbstractDicomService {
                 throw new DicomServiceException(Status.UnableToProcess, e.getCause());
             }
     };
+
+    /**
+     * Returns the destinations of the forward rules mapped to the Calling AET
+     * used for them, if all are configured for the retrieve bridge, otherwise
+     * {@code null}.
+     */
+    private LinkedHashMap<String, String> bridgedAETs(Association as, ProxyAEExtension proxyAEE,
+            List<ForwardRule> forwardRules, Attributes rq, Attributes keys) {
+        if (RetrieveBridge.cgetSOPClassOf(rq.getString(Tag.AffectedSOPClassUID)) == null)
+            return null;
+
+        LinkedHashMap<String, String> bridgedAETs = new LinkedHashMap<String, String>();
+        try {
+            for (ForwardRule rule : forwardRules)
+                for (String destinationAET : ForwardRuleUtils.getDestinationAETsFromForwardRule(as, rule, keys)) {
+                    ForwardOption fwdOption = proxyAEE.getForwardOptions().get(destinationAET);
+                    if (fwdOption == null || !fwdOption.isRetrieveBridge())
+                        return null;
+
+                    bridgedAETs.put(destinationAET,
+                            rule.getUseCallingAET() != null ? rule.getUseCallingAET() : as.getCallingAET());
+                }
+        } catch (Exception e) {
+            LOG.debug("{}: cannot determine destinations for retrieve bridge: {}", as, e.getMessage());
+            return null;
+        }
+        return bridgedAETs.isEmpty() ? null : bridgedAETs;
+    }
 }
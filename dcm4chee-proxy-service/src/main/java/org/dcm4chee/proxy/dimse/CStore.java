@@ -44,6 +44,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
@@ -61,9 +62,7 @@ import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.emf.MultiframeExtractor;
 import org.dcm4che3.io.BulkDataDescriptor;
-import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.io.DicomOutputStream;
@@ -83,17 +82,24 @@ import org.dcm4che3.net.service.BasicCStoreSCP;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.SafeClose;
 import org.dcm4che3.util.StreamUtils;
+import org.dcm4chee.proxy.Proxy;
+import org.dcm4chee.proxy.audit.AuditJournal;
 import org.dcm4chee.proxy.common.AuditDirectory;
 import org.dcm4chee.proxy.common.CMoveInfoObject;
 import org.dcm4chee.proxy.common.RetryObject;
 import org.dcm4chee.proxy.conf.ForwardOption;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
+import org.dcm4chee.proxy.utils.DicomFileUtils;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
 import org.dcm4chee.proxy.utils.ForwardRuleUtils;
 import org.dcm4chee.proxy.utils.InfoFileUtils;
 import org.dcm4chee.proxy.utils.LogUtils;
+import org.dcm4chee.proxy.utils.ParallelFrameExtractor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -119,6 +125,23 @@ public class CStore extends BasicCStoreSCP {
         if (dimse != Dimse.C_STORE_RQ)
             throw new DicomServiceException(Status.UnrecognizedOperation);
 
+        long start = System.nanoTime();
+        try {
+            onCStoreRQ(asAccepted, pc, dimse, rq, data);
+        } finally {
+            ProxyMetrics.getInstance().recordSince(Metric.CSTORE_RECEIVE_TIME,
+                    asAccepted.getCallingAET(), start);
+        }
+    }
+
+    private void onCStoreRQ(Association asAccepted, PresentationContext pc,
+            Dimse dimse, Attributes rq, PDVInputStream data) throws IOException {
+        RetrieveBridge retrieveBridge = (RetrieveBridge) asAccepted
+                .getProperty(RetrieveBridge.class.getName());
+        if (retrieveBridge != null) {
+            retrieveBridge.onCStoreRQ(asAccepted, pc, rq, data);
+            return;
+        }
         ProxyAEExtension proxyAEE = asAccepted.getApplicationEntity()
                 .getAEExtension(ProxyAEExtension.class);
         Object forwardAssociationProperty = asAccepted
@@ -171,6 +194,8 @@ public class CStore extends BasicCStoreSCP {
         File file = createSpoolFile(proxyAEE, asAccepted);
         Attributes fmi = processInputStream(proxyAEE, asAccepted, pc, cmd,
                 data, file);
+        ProxyMetrics.getInstance().record(Metric.CSTORE_RECEIVED_BYTES,
+                asAccepted.getCallingAET(), file.length());
         Object forwardAssociationProperty = asAccepted
                 .getProperty(ProxyAEExtension.FORWARD_ASSOCIATION);
         try {
@@ -303,28 +328,118 @@ public class CStore extends BasicCStoreSCP {
             Association as, PresentationContext pc, Attributes rq,
             PDVInputStream data, File file) throws FileNotFoundException,
             IOException {
+        String cuid = rq.getString(Tag.AffectedSOPClassUID);
+        String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
+        String tsuid = pc.getTransferSyntax();
+        Attributes fmi = as.createFileMetaInformation(iuid, cuid, tsuid);
+        Attributes attrs = tsuid.equals(UID.DeflatedExplicitVRLittleEndian)
+                ? spoolAndCoerce(proxyAEE, as, rq, data, file, fmi)
+                : spoolWithStreamCoercion(proxyAEE, as, rq, data, file, fmi);
+        Properties prop = new Properties();
+        prop.setProperty("hostname", as.getConnection().getHostname());
+        String patID = attrs.getString(Tag.PatientID);
+        if (Proxy.getInstance() != null)
+            Proxy.getInstance().invalidateCachedQueries(patID, attrs.getString(Tag.StudyInstanceUID), false);
+        prop.setProperty("patient-id",
+                (patID == null || patID.length() == 0) ? "<UNKNOWN>" : patID);
+        prop.setProperty("study-iuid", attrs.getString(Tag.StudyInstanceUID));
+        prop.setProperty("sop-instance-uid",
+                attrs.getString(Tag.SOPInstanceUID));
+        prop.setProperty("sop-class-uid", attrs.getString(Tag.SOPClassUID));
+        prop.setProperty("transfer-syntax-uid",
+                fmi.getString(Tag.TransferSyntaxUID));
+        prop.setProperty("source-aet", as.getCallingAET());
+        prop.setProperty("priority", Integer.toString(rq.getInt(Tag.Priority, 0)));
+        String path = file.getPath();
+        File info = new File(path.substring(0, path.length() - 5) + ".info");
+        FileOutputStream infoOut = new FileOutputStream(info);
+        try {
+            prop.store(infoOut, null);
+            infoOut.flush();
+            infoOut.getFD().sync();
+        } finally {
+            infoOut.close();
+        }
+        attrs = null;
+        return fmi;
+    }
+
+    private Attributes spoolWithStreamCoercion(ProxyAEExtension proxyAEE,
+            Association as, Attributes rq, PDVInputStream data, File file,
+            Attributes fmi) throws IOException {
+        LOG.debug("{}: write {}", as, file);
+        return spoolWithStreamCoercion(proxyAEE, as, as.getRemoteAET(),
+                as.getCalledAET(), rq.getString(Tag.AffectedSOPClassUID), data,
+                file, fmi);
+    }
+
+    /**
+     * Reads the dataset header from the stream up to the pixel data,
+     * applies the attribute coercion on it and writes file meta information,
+     * coerced header and the remaining (pixel) data in one pass to the spool
+     * file. Package visible for dcm4chee-proxy-benchmarks, which passes an
+     * in-memory stream instead of the PDV stream of an association.
+     * 
+     * @return the coerced dataset header
+     */
+    static Attributes spoolWithStreamCoercion(ProxyAEExtension proxyAEE,
+            Object source, String callingAET, String calledAET, String cuid,
+            InputStream data, File file, Attributes fmi) throws IOException {
+        DicomInputStream din = new DicomInputStream(data,
+                fmi.getString(Tag.TransferSyntaxUID));
+        Attributes attrs = din.readDataset(-1, Tag.PixelData);
+        attrs = AttributeCoercionUtils.coerceAttributes(proxyAEE, callingAET,
+                cuid, Role.SCU, Dimse.C_STORE_RQ, attrs, source);
+        long start = System.nanoTime();
+        FileOutputStream fout = new FileOutputStream(file);
+        DicomOutputStream out = new DicomOutputStream(new BufferedOutputStream(
+                fout), UID.ExplicitVRLittleEndian);
+        try {
+            out.writeDataset(fmi, attrs);
+            if (din.tag() == Tag.PixelData) {
+                out.writeHeader(Tag.PixelData, din.vr(), din.length());
+                StreamUtils.copy(din, out);
+            }
+            out.flush();
+            ProxyMetrics metrics = ProxyMetrics.getInstance();
+            metrics.recordSince(Metric.SPOOL_WRITE_TIME, calledAET, start);
+            start = System.nanoTime();
+            fout.getFD().sync();
+            metrics.recordSince(Metric.SPOOL_FSYNC_TIME, calledAET, start);
+        } finally {
+            SafeClose.close(out);
+        }
+        return attrs;
+    }
+
+    /**
+     * Spools the PDV stream as received, parses it back with bulk data
+     * references and rewrites the coerced dataset. Only used for transfer
+     * syntaxes which do not allow to splice the raw pixel data behind a
+     * re-encoded header.
+     * 
+     * @return the coerced dataset
+     */
+    private Attributes spoolAndCoerce(ProxyAEExtension proxyAEE,
+            Association as, Attributes rq, PDVInputStream data, File file,
+            Attributes fmi) throws IOException {
         LOG.debug("{}: write {}", as, file);
         // stream to write spool file
         FileOutputStream fout = new FileOutputStream(file);
         BufferedOutputStream bout = new BufferedOutputStream(fout);
         DicomOutputStream out = new DicomOutputStream(bout,
                 UID.ExplicitVRLittleEndian);
-
-        String cuid = rq.getString(Tag.AffectedSOPClassUID);
-        String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
-        String tsuid = pc.getTransferSyntax();
-        Attributes fmi = as.createFileMetaInformation(iuid, cuid, tsuid);
-        // fix
         // spool first
+        long start = System.nanoTime();
         try {
-            if (data instanceof PDVInputStream) {
-                ((PDVInputStream) data).copyTo(out);
-            } else if (data != null) {
-                StreamUtils.copy(data, out);
-            }
+            data.copyTo(out);
         } finally {
             fout.flush();
+            ProxyMetrics metrics = ProxyMetrics.getInstance();
+            metrics.recordSince(Metric.SPOOL_WRITE_TIME, as.getCalledAET(), start);
+            start = System.nanoTime();
             fout.getFD().sync();
+            metrics.recordSince(Metric.SPOOL_FSYNC_TIME, as.getCalledAET(), start);
             SafeClose.close(out);
             SafeClose.close(bout);
             SafeClose.close(fout);
@@ -362,30 +477,7 @@ public class CStore extends BasicCStoreSCP {
         } catch (IOException e) {
             LOG.error("Exception moving temp file with coerced set to spool", e);
         }
-        Properties prop = new Properties();
-        prop.setProperty("hostname", as.getConnection().getHostname());
-        String patID = attrs.getString(Tag.PatientID);
-        prop.setProperty("patient-id",
-                (patID == null || patID.length() == 0) ? "<UNKNOWN>" : patID);
-        prop.setProperty("study-iuid", attrs.getString(Tag.StudyInstanceUID));
-        prop.setProperty("sop-instance-uid",
-                attrs.getString(Tag.SOPInstanceUID));
-        prop.setProperty("sop-class-uid", attrs.getString(Tag.SOPClassUID));
-        prop.setProperty("transfer-syntax-uid",
-                fmi.getString(Tag.TransferSyntaxUID));
-        prop.setProperty("source-aet", as.getCallingAET());
-        String path = file.getPath();
-        File info = new File(path.substring(0, path.length() - 5) + ".info");
-        FileOutputStream infoOut = new FileOutputStream(info);
-        try {
-            prop.store(infoOut, null);
-            infoOut.flush();
-            infoOut.getFD().sync();
-        } finally {
-            infoOut.close();
-        }
-        attrs = null;
-        return fmi;
+        return attrs;
     }
 
     private void addFileInfo(String path, String key, String value)
@@ -527,6 +619,9 @@ public class CStore extends BasicCStoreSCP {
                     + ".info");
             File infoDst = new File(dir, infoFile.getName());
             infoFile.renameTo(infoDst);
+            if (dst.getName().endsWith(".dcm") && Proxy.getInstance() != null)
+                Proxy.getInstance().notifySpooledCStoreFile(
+                        asAccepted.getApplicationEntity(), calledAET, dst);
             asAccepted.writeDimseRSP(pc,
                     Commands.mkCStoreRSP(rq, Status.Success));
         } else {
@@ -605,37 +700,49 @@ public class CStore extends BasicCStoreSCP {
             throws IOException {
         ProxyAEExtension proxyAEE = asAccepted.getApplicationEntity()
                 .getAEExtension(ProxyAEExtension.class);
+        String cuid = rq.getString(Tag.AffectedSOPClassUID);
         if (ForwardConnectionUtils
                 .requiresMultiFrameConversion(proxyAEE,
-                        asInvoked.getRemoteAET(),
-                        rq.getString(Tag.AffectedSOPClassUID))) {
+                        asInvoked.getRemoteAET(), cuid)) {
             processMultiFrame(proxyAEE, asAccepted, asInvoked, pc, rq, dataFile);
             return;
         }
-        Attributes attrs = proxyAEE.parseAttributesWithLazyBulkData(asAccepted,
-                dataFile);
-        attrs = AttributeCoercionUtils.coerceDataset(proxyAEE, asInvoked,
-                Role.SCP, Dimse.C_STORE_RQ, attrs, rq);
-        File logFile = null;
+        // send the spooled dataset as is if neither coercion nor transcoding
+        // applies; forward() sends with the same matching transfer syntax
+        DataWriter data = proxyAEE.getAttributeCoercion(
+                asInvoked.getRemoteAET(), cuid, Role.SCP,
+                Dimse.C_STORE_RQ) == null
+                ? DicomFileUtils.newDatasetWriter(dataFile,
+                        ForwardConnectionUtils.getMatchingTsuid(asInvoked,
+                                pc.getTransferSyntax(), cuid))
+                : null;
+        if (data == null) {
+            Attributes attrs = proxyAEE.parseAttributesWithLazyBulkData(
+                    asAccepted, dataFile);
+            attrs = AttributeCoercionUtils.coerceDataset(proxyAEE, asInvoked,
+                    Role.SCP, Dimse.C_STORE_RQ, attrs, rq);
+            data = new DataWriterAdapter(attrs);
+        }
+        AuditJournal.Entry auditEntry = null;
         try {
             if (proxyAEE.isEnableAuditLog()) {
                 String sourceAET = fmi
                         .getString(Tag.SourceApplicationEntityTitle);
                 Properties prop = InfoFileUtils.getFileInfoProperties(proxyAEE,
                         dataFile);
-                LogUtils.createStartLogFile(proxyAEE,
+                LogUtils.writeStartRecord(proxyAEE,
                         AuditDirectory.TRANSFERRED, sourceAET, asInvoked
                                 .getRemoteAET(), asInvoked.getConnection()
                                 .getHostname(), prop, 0);
-                logFile = LogUtils.writeLogFile(proxyAEE,
+                auditEntry = LogUtils.writeInstanceRecord(proxyAEE,
                         AuditDirectory.TRANSFERRED, sourceAET,
                         asInvoked.getRemoteAET(), prop, dataFile.length(), 0);
             }
-            forward(proxyAEE, asAccepted, asInvoked, pc, rq,
-                    new DataWriterAdapter(attrs), -1, logFile, dataFile, null, false);
+            forward(proxyAEE, asAccepted, asInvoked, pc, rq, data, -1,
+                    auditEntry, dataFile, null, false);
         } catch (Exception e) {
-            if (logFile != null)
-                logFile.delete();
+            if (auditEntry != null)
+                auditEntry.cancel();
             LOG.error("{}: error forwarding object {}: {}", new Object[] {
                     asAccepted, dataFile, e.getMessage() });
             if (proxyAEE.isAcceptDataOnFailedAssociation()) {
@@ -660,43 +767,50 @@ public class CStore extends BasicCStoreSCP {
         } finally {
             dis.close();
         }
-        MultiframeExtractor extractor = new MultiframeExtractor();
         int n = src.getInt(Tag.NumberOfFrames, 1);
         long t = 0;
         boolean log = true;
         Attributes forwardRq = new Attributes(rq);
         String sourceUID = src.getString(Tag.SOPInstanceUID);
-        for (int frameNumber = n - 1; frameNumber >= 0; --frameNumber) {
-            File logFile = null;
+        // read once for all frames instead of once per frame
+        Properties prop = proxyAEE.isEnableAuditLog()
+                ? InfoFileUtils.getFileInfoProperties(proxyAEE, dataFile)
+                : null;
+        ParallelFrameExtractor frames = new ParallelFrameExtractor(proxyAEE
+                .getApplicationEntity().getDevice()
+                .getDeviceExtension(ProxyDeviceExtension.class)
+                .getFrameExtractionPool(), src, prop != null);
+        while (frames.hasNext()) {
+            AuditJournal.Entry auditEntry = null;
             try {
                 long t1 = System.currentTimeMillis();
-                Attributes attrs = extractor.extract(src, frameNumber);
+                ParallelFrameExtractor.Frame frame = frames.next();
+                Attributes attrs = frame.attrs;
+                int frameNumber = frame.frameNumber;
                 long t2 = System.currentTimeMillis();
                 t = t + t2 - t1;
                 forwardRq.setString(Tag.AffectedSOPInstanceUID, VR.UI,
                         attrs.getString(Tag.SOPInstanceUID));
                 forwardRq.setString(Tag.AffectedSOPClassUID, VR.UI,
                         attrs.getString(Tag.SOPClassUID));
-                if (proxyAEE.isEnableAuditLog()) {
-                    Properties prop = InfoFileUtils.getFileInfoProperties(
-                            proxyAEE, dataFile);
+                if (prop != null) {
                     String sourceAET = prop.getProperty("source-aet");
-                    LogUtils.createStartLogFile(proxyAEE,
+                    LogUtils.writeStartRecord(proxyAEE,
                             AuditDirectory.TRANSFERRED, sourceAET, asInvoked
                                     .getRemoteAET(), asInvoked.getConnection()
                                     .getHostname(), prop, 0);
-                    logFile = LogUtils.writeLogFile(proxyAEE,
+                    auditEntry = LogUtils.writeInstanceRecord(proxyAEE,
                             AuditDirectory.TRANSFERRED, sourceAET, asInvoked
-                                    .getRemoteAET(), prop, attrs.calcLength(
-                                    DicomEncodingOptions.DEFAULT, true), 0);
+                                    .getRemoteAET(), prop, frame.length, 0);
                 }
                 forward(proxyAEE, asAccepted, asInvoked, pc, forwardRq,
-                        new DataWriterAdapter(attrs), frameNumber, logFile,
+                        new DataWriterAdapter(attrs), frameNumber, auditEntry,
                         dataFile, sourceUID, false);
             } catch (Exception e) {
-                if (logFile != null)
-                    logFile.delete();
+                if (auditEntry != null)
+                    auditEntry.cancel();
                 log = false;
+                frames.cancel();
                 if (LOG.isDebugEnabled())
                     e.printStackTrace();
                 if (proxyAEE.isAcceptDataOnFailedAssociation()
@@ -746,8 +860,8 @@ public class CStore extends BasicCStoreSCP {
     private static void forward(final ProxyAEExtension proxyAEE,
             final Association asAccepted, Association asInvoked,
             final PresentationContext pc, final Attributes rq, DataWriter data,
-            final int frame, final File logFile, final File dataFile,
-            final String sourceIUID, final boolean directly) throws IOException, InterruptedException {
+            final int frame, final AuditJournal.Entry auditEntry,
+            final File dataFile, final String sourceIUID, final boolean directly) throws IOException, InterruptedException {
         final String tsuid = pc.getTransferSyntax();
         String cuid = rq.getString(Tag.AffectedSOPClassUID);
         String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
@@ -846,8 +960,8 @@ public class CStore extends BasicCStoreSCP {
             @Override
             synchronized public void onClose(Association as) {
                 isClosed = true;
-                if (logFile != null)
-                    logFile.delete();
+                if (auditEntry != null)
+                    auditEntry.cancel();
                 super.onClose(as);
                 Attributes cmd = new Attributes();
                 if (dataFile != null && dataFile.exists()
@@ -43,6 +43,8 @@ import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.dcm4che3.conf.api.ApplicationEntityCache;
 import org.dcm4che3.conf.api.ConfigurationException;
@@ -62,8 +64,11 @@ import org.dcm4che3.net.TransferCapability.Role;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4chee.proxy.common.CMoveInfoObject;
+import org.dcm4chee.proxy.conf.ForwardOption;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.pix.IDWithIssuer;
 import org.dcm4chee.proxy.pix.PIXConsumer;
 import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
@@ -92,6 +97,14 @@ public class ForwardDimseRQ {
     private int NumberOfWarningSuboperations = 0;
     private PIXConsumer pixConsumer;
     private ApplicationEntityCache aeCache;
+    private final long start = System.nanoTime();
+    private final int uniqueKey;
+    private final UIDHashSet returnedUIDs = new UIDHashSet();
+    private CFindCache cfindCache;
+    private String cacheKey;
+    private int cacheTimeout;
+    private int cacheMaxMatches;
+    private List<Attributes> matches;
 
     public ForwardDimseRQ(Association asAccepted, PresentationContext pc, Attributes rq, Attributes data, Dimse dimse,
             PIXConsumer pixConsumer, ApplicationEntityCache aeCache, Association... fwdAssocs) {
@@ -104,6 +117,53 @@ public class ForwardDimseRQ {
         this.pixConsumer = pixConsumer;
         this.aeCache = aeCache;
         waitForOutstandingRSP = new CountDownLatch(fwdAssocs.length);
+        this.uniqueKey = dimse == Dimse.C_FIND_RQ ? uniqueKeyOf(data.getString(Tag.QueryRetrieveLevel)) : 0;
+    }
+
+    /**
+     * Records the matches returned by all destinations and puts them into
+     * {@code cfindCache}, if all destinations complete the query successfully
+     * with not more than {@code maxMatches} matches.
+     */
+    public void cacheMatches(CFindCache cfindCache, String cacheKey, int timeout, int maxMatches) {
+        this.cfindCache = cfindCache;
+        this.cacheKey = cacheKey;
+        this.cacheTimeout = timeout;
+        this.cacheMaxMatches = maxMatches;
+        this.matches = new ArrayList<Attributes>();
+    }
+
+    private synchronized void recordMatch(Attributes match) {
+        if (matches == null)
+            return;
+
+        if (matches.size() < cacheMaxMatches)
+            matches.add(match);
+        else {
+            LOG.debug("{}: more than {} matches, do not cache C-FIND", asAccepted, cacheMaxMatches);
+            matches = null;
+        }
+    }
+
+    private static int uniqueKeyOf(String queryRetrieveLevel) {
+        if ("STUDY".equals(queryRetrieveLevel))
+            return Tag.StudyInstanceUID;
+        if ("SERIES".equals(queryRetrieveLevel))
+            return Tag.SeriesInstanceUID;
+        if ("IMAGE".equals(queryRetrieveLevel))
+            return Tag.SOPInstanceUID;
+        return 0;
+    }
+
+    /**
+     * Returns {@code true} if a match with the same Study, Series or SOP
+     * Instance UID was already returned by this or another destination.
+     */
+    private boolean isDuplicate(Attributes match) {
+        if (uniqueKey == 0 || match == null)
+            return false;
+        String uid = match.getString(uniqueKey);
+        return uid != null && !returnedUIDs.add(uid);
     }
 
     private void forwardDimseRQ(final Association asInvoked, Attributes coercedData, final boolean adjustPatientID)
@@ -114,49 +174,58 @@ public class ForwardDimseRQ {
         final ProxyAEExtension proxyAEE = ae.getAEExtension(ProxyAEExtension.class);
         final int msgId = rq.getInt(Tag.MessageID, 0);
         int rspMsgId = msgId;
+        CMoveInfoObject cmoveInfo = null;
         ForwardRule fwdRule = (ForwardRule) asInvoked.getProperty(ForwardRule.class.getName());
         if (dimse == Dimse.C_MOVE_RQ) {
             if (fwdRule.getUseCallingAET() != null) {
-                CMoveInfoObject infoObject = new CMoveInfoObject(asAccepted.getRemoteAET(),
+                cmoveInfo = new CMoveInfoObject(asAccepted.getRemoteAET(),
                         rq.getString(Tag.MoveDestination), asInvoked.getCalledAET(), asInvoked.getCallingAET(),
                         rq.getInt(Tag.MessageID, 0), (ForwardRule) asInvoked.getProperty(ForwardRule.class.getName()));
-                int newMsgId = proxyAEE.getNewCMoveMessageID(infoObject);
+                int newMsgId = proxyAEE.getNewCMoveMessageID(cmoveInfo);
                 if (newMsgId == -1) {
+                    ProxyMetrics.getInstance().increment(Metric.CMOVE_MESSAGE_ID_EXHAUSTED, ae.getAETitle());
                     LOG.error("Cannot forward C-MOVE-RQ to " + asInvoked.getRemoteAET()
                             + ": no free message id due to too many active c-move-requests");
                     throw new DicomServiceException(Status.UnableToProcess);
                 }
+                ProxyMetrics.getInstance().set(Metric.CMOVE_ACTIVE, ae.getAETitle(), proxyAEE.getActiveCMoveCount());
                 rspMsgId = newMsgId;
             } else if (adjustPatientID)
                 rspMsgId = asInvoked.nextMessageID();
         } else if (adjustPatientID) {
             rspMsgId = asInvoked.nextMessageID();
         }
+        final AtomicBoolean completed = new AtomicBoolean();
+        final CMoveInfoObject registeredCMoveInfo = cmoveInfo;
         final DimseRSPHandler rspHandler = new DimseRSPHandler(rspMsgId) {
 
             @Override
             public void onDimseRSP(Association asInvoked, Attributes cmd, Attributes rspData) {
                 super.onDimseRSP(asInvoked, cmd, rspData);
+                if (completed.get())
+                    return;
+
                 if (adjustPatientID || dimse == Dimse.C_MOVE_RQ)
                     cmd.setInt(Tag.MessageIDBeingRespondedTo, VR.US, msgId);
                 int rspStatus = cmd.getInt(Tag.Status, -1);
-                if (Status.isPending(rspStatus))
-                    writeDimseRSP(pc, cmd, rspData);
-                else {
-                    if (status != Status.Success)
-                        status = rspStatus;
-                    NumberOfCompletedSuboperations = NumberOfCompletedSuboperations
-                            + cmd.getInt(Tag.NumberOfCompletedSuboperations, 0);
-                    NumberOfFailedSuboperations = NumberOfFailedSuboperations
-                            + cmd.getInt(Tag.NumberOfFailedSuboperations, 0);
-                    NumberOfWarningSuboperations = NumberOfWarningSuboperations
-                            + cmd.getInt(Tag.NumberOfWarningSuboperations, 0);
-                    waitForOutstandingRSP.countDown();
-                    if (waitForOutstandingRSP.getCount() == 0)
-                        sendFinalDimseRSP();
+                if (Status.isPending(rspStatus)) {
+                    if (isDuplicate(rspData))
+                        LOG.debug("{}: skip duplicate match", asInvoked);
+                    else
+                        writeDimseRSP(pc, cmd, rspData);
+                } else {
+                    releaseCMoveMessageID(proxyAEE, getMessageID(), registeredCMoveInfo);
+                    if (completed.compareAndSet(false, true))
+                        onFinalDimseRSP(asInvoked, rspStatus, cmd);
                 }
             }
 
+            @Override
+            public void onClose(Association asInvoked) {
+                super.onClose(asInvoked);
+                releaseCMoveMessageID(proxyAEE, getMessageID(), registeredCMoveInfo);
+            }
+
             private void writeDimseRSP(PresentationContext pc, Attributes cmd, Attributes rspData) {
                 try {
                     if (adjustPatientID) {
@@ -172,6 +241,7 @@ public class ForwardDimseRQ {
                                     rspData,
                                     rq);
                     }
+                    recordMatch(rspData);
                     asAccepted.writeDimseRSP(pc, cmd, rspData);
                 } catch (IOException e) {
                     LOG.error(asAccepted + ": failed to forward DIMSE-RSP: " + e.getMessage());
@@ -213,14 +283,72 @@ public class ForwardDimseRQ {
             default:
                 throw new DicomServiceException(Status.UnrecognizedOperation);
             }
+            if (dimse == Dimse.C_FIND_RQ)
+                scheduleQueryTimeout(proxyAEE, asInvoked, rspHandler, completed);
         } catch (Exception e) {
             LOG.error("{}: unable to forward DIMSE request: {}", new Object[] { asInvoked, e.getMessage() });
             if(LOG.isDebugEnabled())
                 e.printStackTrace();
-            waitForOutstandingRSP.countDown();
-            if (waitForOutstandingRSP.getCount() == 0)
-                sendFinalDimseRSP();
+            releaseCMoveMessageID(proxyAEE, rspMsgId, cmoveInfo);
+            if (completed.compareAndSet(false, true))
+                onFinalDimseRSP(asInvoked, Status.UnableToProcess, null);
+        }
+    }
+
+    /**
+     * Releases the Move Originator Message ID of a C-MOVE request forwarded
+     * with a different Calling AET, unless it was already released.
+     */
+    private void releaseCMoveMessageID(ProxyAEExtension proxyAEE, int msgId, CMoveInfoObject info) {
+        if (info != null && proxyAEE.removeCMoveInfoObject(msgId, info))
+            ProxyMetrics.getInstance().set(Metric.CMOVE_ACTIVE, proxyAEE.getApplicationEntity().getAETitle(),
+                    proxyAEE.getActiveCMoveCount());
+    }
+
+    private void scheduleQueryTimeout(ProxyAEExtension proxyAEE, final Association asInvoked,
+            final DimseRSPHandler rspHandler, final AtomicBoolean completed) {
+        ForwardOption fwdOption = proxyAEE.getForwardOptions().get(asInvoked.getCalledAET());
+        final int timeout = fwdOption != null ? fwdOption.getQueryTimeout() : 0;
+        if (timeout <= 0)
+            return;
+
+        asAccepted.getApplicationEntity().getDevice().getScheduledExecutor().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!completed.compareAndSet(false, true))
+                    return;
+
+                LOG.warn("{}: no final C-FIND-RSP within {}ms, cancel query", asInvoked, timeout);
+                try {
+                    rspHandler.cancel(asInvoked);
+                } catch (IOException e) {
+                    LOG.error(asInvoked + ": failed to cancel C-FIND: " + e.getMessage());
+                    if(LOG.isDebugEnabled())
+                        e.printStackTrace();
+                }
+                onFinalDimseRSP(asInvoked, Status.UnableToProcess, null);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onFinalDimseRSP(Association asInvoked, int rspStatus, Attributes cmd) {
+        ProxyMetrics.getInstance().recordSince(Metric.DIMSE_DESTINATION_TIME, asInvoked.getCalledAET(), start);
+        if (status != Status.Success)
+            status = rspStatus;
+        if (rspStatus != Status.Success)
+            matches = null;
+        if (cmd != null) {
+            NumberOfCompletedSuboperations = NumberOfCompletedSuboperations
+                    + cmd.getInt(Tag.NumberOfCompletedSuboperations, 0);
+            NumberOfFailedSuboperations = NumberOfFailedSuboperations
+                    + cmd.getInt(Tag.NumberOfFailedSuboperations, 0);
+            NumberOfWarningSuboperations = NumberOfWarningSuboperations
+                    + cmd.getInt(Tag.NumberOfWarningSuboperations, 0);
         }
+        waitForOutstandingRSP.countDown();
+        if (waitForOutstandingRSP.getCount() == 0)
+            sendFinalDimseRSP();
     }
 
     private String getMoveDestination(ProxyAEExtension proxyAEE, ForwardRule fwdRule) {
@@ -230,8 +358,12 @@ public class ForwardDimseRQ {
     }
 
     private void sendFinalDimseRSP() {
+        ProxyMetrics.getInstance().recordSince(Metric.DIMSE_FANOUT_TIME, dimse.name(), start);
         if (dimse == Dimse.C_FIND_RQ)
             try {
+                if (matches != null)
+                    cfindCache.put(cacheKey, rq.getString(Tag.AffectedSOPClassUID), data, matches, cacheTimeout,
+                            cacheMaxMatches);
                 asAccepted.writeDimseRSP(pc, Commands.mkCFindRSP(rq, status));
                 return;
             } catch (IOException e) {
@@ -44,15 +44,14 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.sax.SAXResult;
-import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 
 import org.dcm4che3.audit.AuditMessage;
@@ -86,12 +85,14 @@ import org.dcm4che3.net.service.AbstractDicomService;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4che3.util.StringUtils;
 import org.dcm4che3.util.UIDUtils;
+import org.dcm4chee.proxy.Proxy;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
 import org.dcm4chee.proxy.utils.ForwardRuleUtils;
 import org.dcm4chee.proxy.utils.InfoFileUtils;
+import org.dcm4chee.proxy.utils.XSLTUtils;
 import org.jboss.resteasy.util.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -112,9 +113,14 @@ public class Mpps extends AbstractDicomService {
     @Override
     public void onDimseRQ(Association asAccepted, PresentationContext pc, Dimse dimse, Attributes cmd, Attributes data)
             throws IOException {
+        // cached worklist queries may no longer match; N-SET-RQs usually do not contain the Patient ID
+        if (Proxy.getInstance() != null)
+            Proxy.getInstance().invalidateCachedQueries(data != null ? data.getString(Tag.PatientID) : null, null,
+                    true);
         switch (dimse) {
         case N_CREATE_RQ:
             onNCreateRQ(asAccepted, pc, dimse, cmd, data);
+            prefetchPriors(asAccepted, data);
             break;
         case N_SET_RQ:
             onNSetRQ(asAccepted, pc, dimse, cmd, data);
@@ -124,6 +130,22 @@ public class Mpps extends AbstractDicomService {
         }
     }
 
+    private void prefetchPriors(Association asAccepted, Attributes data) {
+        if (data == null || Proxy.getInstance() == null)
+            return;
+
+        Set<String> studyIUIDs = new HashSet<String>();
+        Sequence scheduledSteps = data.getSequence(Tag.ScheduledStepAttributesSequence);
+        if (scheduledSteps != null)
+            for (Attributes scheduledStep : scheduledSteps) {
+                String studyIUID = scheduledStep.getString(Tag.StudyInstanceUID);
+                if (studyIUID != null)
+                    studyIUIDs.add(studyIUID);
+            }
+        Proxy.getInstance().prefetchPriors(asAccepted.getApplicationEntity(), data.getString(Tag.PatientID),
+                data.getString(Tag.IssuerOfPatientID), studyIUIDs);
+    }
+
     private void onNCreateRQ(Association asAccepted, PresentationContext pc, Dimse dimse, Attributes cmd,
             Attributes data) throws IOException {
         Association asInvoked = (Association) asAccepted.getProperty(ProxyAEExtension.FORWARD_ASSOCIATION);
@@ -274,10 +296,8 @@ public class Mpps extends AbstractDicomService {
             Attributes fmi, String doseIuid) throws TransformerFactoryConfigurationError, IOException {
         Attributes doseSrData = new Attributes();
         try {
-            Templates templates = proxyAEE.getApplicationEntity().getDevice().getDeviceExtension(ProxyDeviceExtension.class)
-                    .getTemplates(rule.getMpps2DoseSrTemplateURI());
-            SAXTransformerFactory factory = (SAXTransformerFactory) TransformerFactory.newInstance();
-            TransformerHandler th = factory.newTransformerHandler(templates);
+            TransformerHandler th = XSLTUtils.newTransformerHandler(proxyAEE.getApplicationEntity().getDevice()
+                    .getDeviceExtension(ProxyDeviceExtension.class), rule.getMpps2DoseSrTemplateURI());
             Transformer tr = th.getTransformer();
             String irradiationEventUID = new String(iuid).concat("1");
             tr.setParameter("IrradiationEventUID", irradiationEventUID);
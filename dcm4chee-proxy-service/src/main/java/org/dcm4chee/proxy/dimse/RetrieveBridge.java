@@ -0,0 +1,661 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.dimse;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.dcm4che3.conf.api.ApplicationEntityCache;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.mime.MultipartInputStream;
+import org.dcm4che3.mime.MultipartParser;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.CancelRQHandler;
+import org.dcm4che3.net.Commands;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.DataWriterAdapter;
+import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.pdu.RoleSelection;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.dcm4chee.proxy.conf.ForwardOption;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.forward.ForwardAssociationPool;
+import org.dcm4chee.proxy.utils.DicomFileUtils;
+import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs a C-MOVE request by retrieving the requested objects from the
+ * destinations of the forward rules by C-GET, or by WADO-RS if configured,
+ * into a spool directory, and storing them to the Move Destination over an
+ * association opened by the proxy while the retrieve is still in progress.
+ * The destinations do not need to open an association to the proxy for the
+ * C-STORE sub-operations.
+ */
+public class RetrieveBridge implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetrieveBridge.class);
+
+    private static final int MAX_PRESENTATION_CONTEXTS = 128;
+
+    private static final int WADO_CONNECT_TIMEOUT = 10000;
+
+    private static final int WADO_READ_TIMEOUT = 60000;
+
+    private static final String DICOM_UID_ROOT = "1.2.840.10008.";
+
+    private static final String STORAGE_UID_ROOT = "1.2.840.10008.5.1.4.1.1.";
+
+    private static final String[][] CGET_SOP_CLASSES = {
+        { UID.PatientRootQueryRetrieveInformationModelMOVE, UID.PatientRootQueryRetrieveInformationModelGET },
+        { UID.StudyRootQueryRetrieveInformationModelMOVE, UID.StudyRootQueryRetrieveInformationModelGET },
+        { UID.PatientStudyOnlyQueryRetrieveInformationModelMOVERetired,
+            UID.PatientStudyOnlyQueryRetrieveInformationModelGETRetired } };
+
+    private final ApplicationEntityCache aeCache;
+    private final ForwardAssociationPool associationPool;
+    private final Association asAccepted;
+    private final PresentationContext pc;
+    private final Attributes rq;
+    private final Attributes keys;
+    private final Map<String, String> sourceAETs;
+    private final ProxyAEExtension proxyAEE;
+    private final int msgId;
+    private final Set<String> iuids = new HashSet<String>();
+    private final BlockingQueue<Instance> queue = new LinkedBlockingQueue<Instance>();
+    private File dir;
+    private volatile boolean canceled;
+    private volatile Association asGet;
+    private volatile DimseRSPHandler getRspHandler;
+    private boolean retrieveFailed;
+    private int remaining;
+    private int completed;
+    private int failed;
+    private int warning;
+
+    private static class Instance {
+
+        /** Marks the end of the retrieve in the queue of spooled instances. */
+        static final Instance END = new Instance(null, new Attributes());
+
+        final File file;
+        final String cuid;
+        final String iuid;
+        final String tsuid;
+
+        Instance(File file, Attributes fmi) {
+            this.file = file;
+            this.cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
+            this.iuid = fmi.getString(Tag.MediaStorageSOPInstanceUID);
+            this.tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        }
+    }
+
+    /**
+     * @param sourceAETs
+     *            AE titles to retrieve from, mapped to the Calling AET used
+     *            for the C-GET association
+     */
+    public RetrieveBridge(ApplicationEntityCache aeCache, ForwardAssociationPool associationPool,
+            Association asAccepted, PresentationContext pc, Attributes rq, Attributes keys,
+            Map<String, String> sourceAETs) {
+        this.aeCache = aeCache;
+        this.associationPool = associationPool;
+        this.asAccepted = asAccepted;
+        this.pc = pc;
+        this.rq = rq;
+        this.keys = keys;
+        this.sourceAETs = sourceAETs;
+        this.proxyAEE = asAccepted.getApplicationEntity().getAEExtension(ProxyAEExtension.class);
+        this.msgId = rq.getInt(Tag.MessageID, 0);
+    }
+
+    public static String cgetSOPClassOf(String cmoveCUID) {
+        for (String[] cuids : CGET_SOP_CLASSES)
+            if (cuids[0].equals(cmoveCUID))
+                return cuids[1];
+        return null;
+    }
+
+    public void execute() {
+        asAccepted.addCancelRQHandler(msgId, new CancelRQHandler() {
+
+            @Override
+            public void onCancelRQ(Association as) {
+                canceled = true;
+                Association as2 = asGet;
+                DimseRSPHandler rspHandler = getRspHandler;
+                if (as2 != null && rspHandler != null)
+                    try {
+                        rspHandler.cancel(as2);
+                    } catch (IOException e) {
+                        LOG.error(as2 + ": failed to cancel C-GET: " + e.getMessage());
+                        if (LOG.isDebugEnabled())
+                            e.printStackTrace();
+                    }
+            }
+        });
+        asAccepted.getApplicationEntity().getDevice().execute(this);
+    }
+
+    @Override
+    public void run() {
+        int status;
+        FutureTask<Void> storeTask = null;
+        try {
+            dir = File.createTempFile("retrieve", "", proxyAEE.getRetrieveDirectoryPath());
+            if (!dir.delete() || !dir.mkdir())
+                throw new IOException("Cannot create directory " + dir);
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    store();
+                    return null;
+                }
+            });
+            asAccepted.getApplicationEntity().getDevice().execute(task);
+            storeTask = task;
+            try {
+                retrieve(storeTask);
+            } finally {
+                queue.add(Instance.END);
+            }
+            storeTask.get();
+            status = status();
+        } catch (Exception e) {
+            LOG.error("{}: retrieve bridge failed: {}", asAccepted, e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+            status = Status.UnableToProcess;
+        } finally {
+            asAccepted.removeCancelRQHandler(msgId);
+        }
+        awaitStored(storeTask);
+        writeFinalRSP(status);
+        deleteDirectory();
+    }
+
+    private void retrieve(FutureTask<Void> storeTask) {
+        for (Map.Entry<String, String> entry : sourceAETs.entrySet()) {
+            // stop if storing to the Move Destination already failed
+            if (canceled || storeTask.isDone())
+                break;
+            ForwardOption fwdOption = proxyAEE.getForwardOptions().get(entry.getKey());
+            String wadoRsURL = fwdOption != null ? fwdOption.getWadoRsURL() : null;
+            try {
+                if (wadoRsURL != null && !"PATIENT".equals(keys.getString(Tag.QueryRetrieveLevel)))
+                    retrieveByWadoRS(entry.getKey(), wadoRsURL);
+                else
+                    retrieveByCGet(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                LOG.error("{}: failed to retrieve objects from {}: {}",
+                        new Object[] { asAccepted, entry.getKey(), e.getMessage() });
+                if (LOG.isDebugEnabled())
+                    e.printStackTrace();
+                setRetrieveFailed();
+            }
+        }
+    }
+
+    private void awaitStored(FutureTask<Void> storeTask) {
+        if (storeTask == null)
+            return;
+
+        try {
+            storeTask.get();
+        } catch (Exception e) {
+            // already reported by run()
+        }
+    }
+
+    private void retrieveByCGet(String sourceAET, String callingAET) throws Exception {
+        String cuid = cgetSOPClassOf(rq.getString(Tag.AffectedSOPClassUID));
+        ApplicationEntity destination = aeCache.findApplicationEntity(rq.getString(Tag.MoveDestination));
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.setCallingAET(callingAET);
+        aarq.setCalledAET(sourceAET);
+        aarq.addPresentationContext(new PresentationContext(1, cuid, UID.ImplicitVRLittleEndian));
+        addStoragePresentationContexts(aarq, destination, true);
+        Association as = proxyAEE.getApplicationEntity().connect(aeCache.findApplicationEntity(sourceAET), aarq);
+        as.setProperty(RetrieveBridge.class.getName(), this);
+        final int[] getStatus = { -1 };
+        try {
+            DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
+
+                @Override
+                public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+                    super.onDimseRSP(as, cmd, data);
+                    int status = cmd.getInt(Tag.Status, -1);
+                    if (!Status.isPending(status))
+                        getStatus[0] = status;
+                }
+            };
+            getRspHandler = rspHandler;
+            asGet = as;
+            LOG.info("{}: retrieve objects for C-MOVE from {} by C-GET", asAccepted, sourceAET);
+            as.cget(cuid, rq.getInt(Tag.Priority, 0), keys, UID.ImplicitVRLittleEndian, rspHandler);
+            as.waitForOutstandingRSP();
+        } finally {
+            asGet = null;
+            as.release();
+        }
+        if (getStatus[0] != Status.Success) {
+            LOG.warn("{}: C-GET from {} completed with status {}H", new Object[] { asAccepted, sourceAET,
+                    Integer.toHexString(getStatus[0]) });
+            setRetrieveFailed();
+        }
+    }
+
+    /**
+     * Adds presentation contexts for the Storage SOP Classes the Move
+     * Destination accepts as SCP.
+     */
+    private static void addStoragePresentationContexts(AAssociateRQ aarq, ApplicationEntity destination,
+            boolean scpRole) {
+        for (TransferCapability tc : destination.getTransferCapabilitiesWithRole(Role.SCP)) {
+            String cuid = tc.getSopClass();
+            if (aarq.getNumberOfPresentationContexts() == MAX_PRESENTATION_CONTEXTS)
+                break;
+            if (!isStorageSOPClass(cuid))
+                continue;
+            aarq.addPresentationContext(new PresentationContext(aarq.getNumberOfPresentationContexts() * 2 + 1,
+                    cuid, transferSyntaxesOf(tc)));
+            if (scpRole)
+                aarq.addRoleSelection(new RoleSelection(cuid, false, true));
+        }
+    }
+
+    /**
+     * Standard SOP Classes are Storage SOP Classes if they are registered
+     * below the Storage root or named as such, e.g. Hanging Protocol Storage.
+     * Private SOP Classes are assumed to be Storage SOP Classes.
+     */
+    static boolean isStorageSOPClass(String cuid) {
+        if (!cuid.startsWith(DICOM_UID_ROOT))
+            return true;
+
+        return cuid.startsWith(STORAGE_UID_ROOT) || UID.nameOf(cuid).endsWith(" Storage");
+    }
+
+    private static String[] transferSyntaxesOf(TransferCapability tc) {
+        String[] tsuids = tc.getTransferSyntaxes();
+        for (String tsuid : tsuids)
+            if (tsuid.equals("*"))
+                return new String[] { UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian };
+        return tsuids;
+    }
+
+    /**
+     * Spools a C-STORE sub-operation of a C-GET performed by this bridge.
+     */
+    public void onCStoreRQ(Association as, PresentationContext pc, Attributes rq, PDVInputStream data)
+            throws IOException {
+        String cuid = rq.getString(Tag.AffectedSOPClassUID);
+        String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
+        Attributes fmi = as.createFileMetaInformation(iuid, cuid, pc.getTransferSyntax());
+        File file = File.createTempFile("dcm", ".dcm", dir);
+        DicomOutputStream out = new DicomOutputStream(new BufferedOutputStream(new FileOutputStream(file)),
+                UID.ExplicitVRLittleEndian);
+        try {
+            out.writeFileMetaInformation(fmi);
+            data.copyTo(out);
+        } catch (IOException e) {
+            LOG.error(as + ": failed to spool " + file + ": " + e.getMessage());
+            SafeClose.close(out);
+            file.delete();
+            throw new DicomServiceException(Status.OutOfResources, e);
+        } finally {
+            SafeClose.close(out);
+        }
+        addInstance(new Instance(file, fmi));
+        as.writeDimseRSP(pc, Commands.mkCStoreRSP(rq, Status.Success));
+    }
+
+    private void retrieveByWadoRS(String sourceAET, String wadoRsURL) throws IOException {
+        LOG.info("{}: retrieve objects for C-MOVE from {} by WADO-RS", asAccepted, sourceAET);
+        for (String url : wadoRsURLs(wadoRsURL)) {
+            if (canceled)
+                return;
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(WADO_CONNECT_TIMEOUT);
+            conn.setReadTimeout(WADO_READ_TIMEOUT);
+            conn.setRequestProperty("Accept", "multipart/related;type=\"application/dicom\"");
+            InputStream in = null;
+            try {
+                int rc = conn.getResponseCode();
+                String boundary = boundaryOf(conn.getContentType());
+                if ((rc != HttpURLConnection.HTTP_OK && rc != HttpURLConnection.HTTP_PARTIAL) || boundary == null) {
+                    LOG.warn("{}: WADO-RS request {} failed: {} {}", new Object[] { asAccepted, url, rc,
+                            conn.getResponseMessage() });
+                    setRetrieveFailed();
+                    continue;
+                }
+                in = conn.getInputStream();
+                new MultipartParser(boundary).parse(in, new MultipartParser.Handler() {
+
+                    @Override
+                    public void bodyPart(int partNumber, MultipartInputStream part) throws IOException {
+                        part.readHeaderParams();
+                        spool(part);
+                    }
+                });
+            } finally {
+                SafeClose.close(in);
+                conn.disconnect();
+            }
+        }
+    }
+
+    private List<String> wadoRsURLs(String wadoRsURL) {
+        String baseURL = wadoRsURL.endsWith("/") ? wadoRsURL : wadoRsURL + '/';
+        String level = keys.getString(Tag.QueryRetrieveLevel);
+        List<String> urls = new ArrayList<String>();
+        String[] studyIUIDs = keys.getStrings(Tag.StudyInstanceUID);
+        if (studyIUIDs == null)
+            return urls;
+
+        if ("STUDY".equals(level) || studyIUIDs.length > 1) {
+            for (String studyIUID : studyIUIDs)
+                urls.add(baseURL + "studies/" + studyIUID);
+            return urls;
+        }
+        String studyURL = baseURL + "studies/" + studyIUIDs[0];
+        String[] seriesIUIDs = keys.getStrings(Tag.SeriesInstanceUID);
+        if (seriesIUIDs == null)
+            return urls;
+
+        if ("SERIES".equals(level) || seriesIUIDs.length > 1) {
+            for (String seriesIUID : seriesIUIDs)
+                urls.add(studyURL + "/series/" + seriesIUID);
+            return urls;
+        }
+        String seriesURL = studyURL + "/series/" + seriesIUIDs[0];
+        String[] sopIUIDs = keys.getStrings(Tag.SOPInstanceUID);
+        if (sopIUIDs != null)
+            for (String sopIUID : sopIUIDs)
+                urls.add(seriesURL + "/instances/" + sopIUID);
+        return urls;
+    }
+
+    private static String boundaryOf(String contentType) {
+        if (contentType == null)
+            return null;
+
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.regionMatches(true, 0, "boundary=", 0, 9)) {
+                String boundary = param.substring(9);
+                return boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")
+                        ? boundary.substring(1, boundary.length() - 1)
+                        : boundary;
+            }
+        }
+        return null;
+    }
+
+    private void spool(InputStream in) throws IOException {
+        File file = File.createTempFile("dcm", ".dcm", dir);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            StreamUtils.copy(in, out);
+        } finally {
+            SafeClose.close(out);
+        }
+        Attributes fmi;
+        DicomInputStream din = new DicomInputStream(file);
+        try {
+            fmi = din.readFileMetaInformation();
+        } finally {
+            SafeClose.close(din);
+        }
+        if (fmi == null) {
+            LOG.warn("{}: ignore WADO-RS part without file meta information", asAccepted);
+            file.delete();
+            return;
+        }
+        addInstance(new Instance(file, fmi));
+    }
+
+    /**
+     * Queues a spooled instance for storage to the Move Destination, unless
+     * it was already retrieved from another source.
+     */
+    private synchronized void addInstance(Instance inst) {
+        if (!iuids.add(inst.iuid)) {
+            inst.file.delete();
+            return;
+        }
+        remaining++;
+        queue.add(inst);
+    }
+
+    private synchronized void setRetrieveFailed() {
+        retrieveFailed = true;
+    }
+
+    private void store() throws Exception {
+        Association as = null;
+        Semaphore window = null;
+        try {
+            Instance inst;
+            while ((inst = queue.take()) != Instance.END) {
+                if (canceled)
+                    break;
+                if (as == null) {
+                    ForwardOption fwdOption = proxyAEE.getForwardOptions().get(rq.getString(Tag.MoveDestination));
+                    as = connectMoveDestination();
+                    // connect proposes the maximum of the local connection, so the forward option is enforced here
+                    int maxOpsInvoked = ForwardConnectionUtils.getMaxOpsInvoked(as.getAAssociateAC(),
+                            fwdOption != null ? fwdOption.getMaxOpsInvoked() : 0);
+                    if (maxOpsInvoked > 0)
+                        window = new Semaphore(maxOpsInvoked);
+                }
+                // objects not stored because the association to the Move Destination was closed
+                // are counted as failed by status()
+                if (!as.isReadyForDataTransfer())
+                    break;
+                if (as.getTransferSyntaxesFor(inst.cuid).isEmpty())
+                    onCStoreRSP(as, inst, Status.SOPclassNotSupported);
+                else
+                    store(as, inst, window);
+            }
+            if (as != null)
+                as.waitForOutstandingRSP();
+        } finally {
+            if (as != null)
+                if (associationPool != null)
+                    associationPool.release(as);
+                else
+                    as.release();
+        }
+    }
+
+    private Association connectMoveDestination() throws Exception {
+        String moveDestination = rq.getString(Tag.MoveDestination);
+        ApplicationEntity ae = proxyAEE.getApplicationEntity();
+        ApplicationEntity destination = aeCache.findApplicationEntity(moveDestination);
+        AAssociateRQ aarq = new AAssociateRQ();
+        aarq.setCallingAET(asAccepted.getCalledAET());
+        aarq.setCalledAET(moveDestination);
+        addStoragePresentationContexts(aarq, destination, false);
+        return associationPool != null
+                ? associationPool.connect(ae, destination, aarq)
+                : ae.connect(destination, aarq);
+    }
+
+    private synchronized int status() {
+        if (canceled)
+            return Status.Cancel;
+        if (completed == 0 && failed == 0 && warning == 0 && remaining == 0)
+            return retrieveFailed ? Status.UnableToProcess : Status.Success;
+        failed += remaining;
+        remaining = 0;
+        if (failed == 0 && warning == 0 && !retrieveFailed)
+            return Status.Success;
+        return completed == 0 && warning == 0 ? Status.UnableToPerformSubOperations : Status.OneOrMoreFailures;
+    }
+
+    private void store(Association as, final Instance inst, final Semaphore window) throws Exception {
+        String tsuid = ForwardConnectionUtils.getMatchingTsuid(as, inst.tsuid, inst.cuid);
+        DataWriter data = DicomFileUtils.newDatasetWriter(inst.file, tsuid);
+        if (data == null)
+            data = new DataWriterAdapter(proxyAEE.parseAttributesWithLazyBulkData(as, inst.file));
+        DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
+
+            @Override
+            public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+                super.onDimseRSP(as, cmd, data);
+                if (window != null)
+                    window.release();
+                onCStoreRSP(as, inst, cmd.getInt(Tag.Status, -1));
+            }
+
+            @Override
+            public void onClose(Association as) {
+                super.onClose(as);
+                if (window != null)
+                    window.release();
+            }
+        };
+        if (window != null)
+            window.acquire();
+        boolean invoked = false;
+        try {
+            as.cstore(inst.cuid, inst.iuid, rq.getInt(Tag.Priority, 0), asAccepted.getRemoteAET(), msgId, data,
+                    tsuid, rspHandler);
+            invoked = true;
+        } finally {
+            if (!invoked && window != null)
+                window.release();
+        }
+    }
+
+    private synchronized void onCStoreRSP(Association as, Instance inst, int status) {
+        remaining--;
+        switch (status) {
+        case Status.Success:
+            completed++;
+            break;
+        case Status.CoercionOfDataElements:
+        case Status.ElementsDiscarded:
+        case Status.DataSetDoesNotMatchSOPClassWarning:
+            warning++;
+            break;
+        default:
+            LOG.warn("{}: failed to store {} to Move Destination: {}H",
+                    new Object[] { as, inst.iuid, Integer.toHexString(status) });
+            failed++;
+        }
+        if (!canceled)
+            try {
+                Attributes rsp = Commands.mkCMoveRSP(rq, Status.Pending);
+                rsp.setInt(Tag.NumberOfRemainingSuboperations, VR.US, remaining);
+                addNumberOfSuboperations(rsp);
+                asAccepted.writeDimseRSP(pc, rsp);
+            } catch (IOException e) {
+                LOG.error(asAccepted + ": failed to write pending C-MOVE-RSP: " + e.getMessage());
+                if (LOG.isDebugEnabled())
+                    e.printStackTrace();
+            }
+    }
+
+    private synchronized void writeFinalRSP(int status) {
+        try {
+            Attributes rsp = Commands.mkCMoveRSP(rq, status);
+            if (status == Status.Cancel)
+                rsp.setInt(Tag.NumberOfRemainingSuboperations, VR.US, remaining);
+            addNumberOfSuboperations(rsp);
+            asAccepted.writeDimseRSP(pc, rsp);
+        } catch (IOException e) {
+            LOG.error(asAccepted + ": failed to write C-MOVE-RSP: " + e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        }
+    }
+
+    private void addNumberOfSuboperations(Attributes rsp) {
+        rsp.setInt(Tag.NumberOfCompletedSuboperations, VR.US, completed);
+        rsp.setInt(Tag.NumberOfFailedSuboperations, VR.US, failed);
+        rsp.setInt(Tag.NumberOfWarningSuboperations, VR.US, warning);
+    }
+
+    private void deleteDirectory() {
+        if (dir == null)
+            return;
+
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                if (!file.delete())
+                    LOG.warn("{}: failed to delete {}", asAccepted, file);
+        if (!dir.delete())
+            LOG.warn("{}: failed to delete {}", asAccepted, dir);
+    }
+}
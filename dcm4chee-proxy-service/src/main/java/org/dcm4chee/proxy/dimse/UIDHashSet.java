@@ -0,0 +1,107 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.dimse;
+
+/**
+ * Set of UIDs, stored as 64-bit hashes in an open addressing table, used to
+ * suppress duplicate matches returned by several destinations of a C-FIND.
+ */
+class UIDHashSet {
+
+    private long[] table = new long[64];
+    private int size;
+    private boolean containsZero;
+
+    /**
+     * Adds {@code uid} to the set. Returns {@code false} if the set already
+     * contained it.
+     */
+    public boolean add(String uid) {
+        return add(hash(uid));
+    }
+
+    synchronized boolean add(long hash) {
+        if (hash == 0) {
+            if (containsZero)
+                return false;
+            return containsZero = true;
+        }
+        if ((size + 1) * 2 > table.length)
+            rehash();
+        if (!insert(table, hash))
+            return false;
+        size++;
+        return true;
+    }
+
+    public synchronized int size() {
+        return containsZero ? size + 1 : size;
+    }
+
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        int i = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table[i] != 0) {
+            if (table[i] == hash)
+                return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = hash;
+        return true;
+    }
+
+    private void rehash() {
+        long[] newTable = new long[table.length * 2];
+        for (long hash : table)
+            if (hash != 0)
+                insert(newTable, hash);
+        table = newTable;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UID.
+     */
+    static long hash(String uid) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, n = uid.length(); i < n; i++) {
+            hash ^= uid.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
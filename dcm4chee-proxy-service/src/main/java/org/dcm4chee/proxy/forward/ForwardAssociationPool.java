@@ -0,0 +1,214 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.forward;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps forward associations open after a forward task has finished, so that
+ * subsequent tasks for the same calling and called AE title can reuse them
+ * instead of negotiating a new association. An idle association is only reused if
+ * the peer accepted all abstract and transfer syntaxes requested by the new
+ * task, otherwise a new association is opened.
+ */
+public class ForwardAssociationPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ForwardAssociationPool.class);
+
+    private final Device device;
+    private final HashMap<String, List<IdleAssociation>> idleAssociations = new HashMap<String, List<IdleAssociation>>();
+
+    private static class IdleAssociation {
+
+        final Association as;
+        final long since;
+
+        IdleAssociation(Association as) {
+            this.as = as;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    public ForwardAssociationPool(Device device) {
+        this.device = device;
+    }
+
+    public Association connect(ApplicationEntity ae, ApplicationEntity remote, AAssociateRQ rq)
+            throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException {
+        Association as = pollIdleAssociation(rq);
+        if (as != null) {
+            LOG.debug("{}: reuse idle forward association", as);
+            return as;
+        }
+        return ae.connect(remote, rq);
+    }
+
+    public void release(Association as) throws IOException {
+        final int idleTimeout = getIdleTimeout();
+        if (idleTimeout <= 0 || !as.isReadyForDataTransfer()) {
+            as.release();
+            return;
+        }
+        synchronized (idleAssociations) {
+            String key = key(as.getAAssociateRQ());
+            List<IdleAssociation> list = idleAssociations.get(key);
+            if (list == null) {
+                list = new ArrayList<IdleAssociation>(1);
+                idleAssociations.put(key, list);
+            }
+            list.add(new IdleAssociation(as));
+        }
+        LOG.debug("{}: keep forward association open for max {}s", as, idleTimeout);
+        device.getScheduledExecutor().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                releaseExpired(idleTimeout);
+            }
+        }, idleTimeout, TimeUnit.SECONDS);
+    }
+
+    public void releaseAll() {
+        List<Association> toRelease = new ArrayList<Association>();
+        synchronized (idleAssociations) {
+            for (List<IdleAssociation> list : idleAssociations.values())
+                for (IdleAssociation idle : list)
+                    toRelease.add(idle.as);
+            idleAssociations.clear();
+        }
+        for (Association as : toRelease)
+            releaseQuietly(as);
+    }
+
+    private Association pollIdleAssociation(AAssociateRQ rq) {
+        List<Association> toRelease = new ArrayList<Association>();
+        Association match = null;
+        long expired = System.currentTimeMillis() - getIdleTimeout() * 1000L;
+        synchronized (idleAssociations) {
+            List<IdleAssociation> list = idleAssociations.get(key(rq));
+            if (list != null)
+                for (Iterator<IdleAssociation> iter = list.iterator(); iter.hasNext();) {
+                    IdleAssociation idle = iter.next();
+                    if (!idle.as.isReadyForDataTransfer()) {
+                        iter.remove();
+                    } else if (idle.since < expired) {
+                        iter.remove();
+                        toRelease.add(idle.as);
+                    } else if (match == null && isNegotiatedFor(idle.as, rq)) {
+                        iter.remove();
+                        match = idle.as;
+                    }
+                }
+        }
+        for (Association as : toRelease)
+            releaseQuietly(as);
+        return match;
+    }
+
+    private void releaseExpired(int idleTimeout) {
+        List<Association> toRelease = new ArrayList<Association>();
+        long expired = System.currentTimeMillis() - idleTimeout * 1000L;
+        synchronized (idleAssociations) {
+            for (Iterator<List<IdleAssociation>> lists = idleAssociations.values().iterator(); lists.hasNext();) {
+                List<IdleAssociation> list = lists.next();
+                for (Iterator<IdleAssociation> iter = list.iterator(); iter.hasNext();) {
+                    IdleAssociation idle = iter.next();
+                    if (idle.since <= expired || !idle.as.isReadyForDataTransfer()) {
+                        iter.remove();
+                        toRelease.add(idle.as);
+                    }
+                }
+                if (list.isEmpty())
+                    lists.remove();
+            }
+        }
+        for (Association as : toRelease)
+            releaseQuietly(as);
+    }
+
+    private static boolean isNegotiatedFor(Association as, AAssociateRQ rq) {
+        for (PresentationContext pc : rq.getPresentationContexts()) {
+            Set<String> accepted = as.getTransferSyntaxesFor(pc.getAbstractSyntax());
+            for (String tsuid : pc.getTransferSyntaxes())
+                if (!accepted.contains(tsuid))
+                    return false;
+        }
+        return true;
+    }
+
+    private static void releaseQuietly(Association as) {
+        if (!as.isReadyForDataTransfer())
+            return;
+
+        try {
+            LOG.debug("{}: release idle forward association", as);
+            as.release();
+        } catch (IOException e) {
+            LOG.error(as + ": failed to release association: " + e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        }
+    }
+
+    private int getIdleTimeout() {
+        ProxyDeviceExtension proxyDevExt = device.getDeviceExtension(ProxyDeviceExtension.class);
+        return proxyDevExt != null ? proxyDevExt.getForwardAssociationIdleTimeout() : 0;
+    }
+
+    private static String key(AAssociateRQ rq) {
+        return rq.getCallingAET() + '\\' + rq.getCalledAET();
+    }
+}
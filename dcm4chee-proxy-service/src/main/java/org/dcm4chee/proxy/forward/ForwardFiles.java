@@ -50,12 +50,17 @@ import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -68,14 +73,13 @@ import org.dcm4che3.data.Sequence;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.emf.MultiframeExtractor;
-import org.dcm4che3.io.DicomEncodingOptions;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
 import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.AssociationStateException;
+import org.dcm4che3.net.DataWriter;
 import org.dcm4che3.net.DataWriterAdapter;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.DimseRSPHandler;
@@ -97,10 +101,14 @@ import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
 import org.dcm4chee.proxy.conf.Retry;
 import org.dcm4chee.proxy.dimse.StgCmt;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
+import org.dcm4chee.proxy.utils.DicomFileUtils;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
 import org.dcm4chee.proxy.utils.InfoFileUtils;
 import org.dcm4chee.proxy.utils.LogUtils;
+import org.dcm4chee.proxy.utils.ParallelFrameExtractor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -109,14 +117,24 @@ import org.slf4j.LoggerFactory;
  */
 public class ForwardFiles {
     
-    private final Lock lock = new ReentrantLock();
+    private static final Lock lock = new ReentrantLock();
+
+    /**
+     * C-STOREs kept in flight when converting multi-frame objects to
+     * destinations without a configured maximum of invoked operations, so
+     * extracted frames are not sent in strict request-response lock-step.
+     */
+    private static final int EMF2SF_MAX_OPS_INVOKED = 16;
 
     protected static final Logger LOG = LoggerFactory.getLogger(ForwardFiles.class);
 
     private ApplicationEntityCache aeCache;
 
-    public ForwardFiles(ApplicationEntityCache aeCache) {
+    private ForwardAssociationPool associationPool;
+
+    public ForwardFiles(ApplicationEntityCache aeCache, ForwardAssociationPool associationPool) {
         this.aeCache = aeCache;
+        this.associationPool = associationPool;
     }
 
     public void execute(ApplicationEntity ae) {
@@ -506,30 +524,42 @@ public class ForwardFiles {
         for (String calledAET : proxyAEE.getCStoreDirectoryPath().list(dirFilter())) {
             File dir = new File(proxyAEE.getCStoreDirectoryPath(), calledAET);
             File[] files = dir.listFiles(fileFilter(proxyAEE, calledAET));
+            ProxyMetrics.getInstance().set(Metric.SPOOL_QUEUE_DEPTH, calledAET, files != null ? files.length : 0);
             if (files == null || files.length == 0)
                 continue;
 
             LOG.debug("Processing schedule C-STORE data ...");
-            if (!forwardOptions.keySet().contains(calledAET)) {
-                // process destinations without forward schedule
-                LOG.debug("No forward schedule for {}, sending existing C-STORE data now", calledAET);
-                startForwardScheduledCStoreFiles(proxyAEE, calledAET, files);
-            } else
-                for (Entry<String, ForwardOption> entry : forwardOptions.entrySet()) {
-                    boolean isMatchingAET = calledAET.equals(entry.getKey());
-                    if (isMatchingAET && entry.getValue().getSchedule().isNow(new GregorianCalendar())) {
-                        LOG.debug("Found currently active forward schedule for {}, sending existing C-STORE data now",
-                                calledAET);
-                        startForwardScheduledCStoreFiles(proxyAEE, calledAET, files);
-                    } else if (isMatchingAET) {
-                        LOG.debug("Found forward schedule for {}, but is inactive (days={}, hours={})", new Object[] {
-                                calledAET, entry.getValue().getSchedule().getDays(),
-                                entry.getValue().getSchedule().getHours() });
-                    }
-                }
+            processCStoreFiles(proxyAEE, forwardOptions, calledAET, files);
         }
     }
 
+    public void forwardSpooledCStoreFiles(ApplicationEntity ae, String calledAET, File[] files) {
+        ProxyAEExtension proxyAEE = ae.getAEExtension(ProxyAEExtension.class);
+        LOG.debug("Processing {} newly spooled C-STORE file(s) for {}", files.length, calledAET);
+        processCStoreFiles(proxyAEE, proxyAEE.getForwardOptions(), calledAET, files);
+    }
+
+    private void processCStoreFiles(ProxyAEExtension proxyAEE, HashMap<String, ForwardOption> forwardOptions,
+            String calledAET, File[] files) {
+        if (!forwardOptions.keySet().contains(calledAET)) {
+            // process destinations without forward schedule
+            LOG.debug("No forward schedule for {}, sending existing C-STORE data now", calledAET);
+            startForwardScheduledCStoreFiles(proxyAEE, calledAET, files);
+        } else
+            for (Entry<String, ForwardOption> entry : forwardOptions.entrySet()) {
+                boolean isMatchingAET = calledAET.equals(entry.getKey());
+                if (isMatchingAET && entry.getValue().getSchedule().isNow(new GregorianCalendar())) {
+                    LOG.debug("Found currently active forward schedule for {}, sending existing C-STORE data now",
+                            calledAET);
+                    startForwardScheduledCStoreFiles(proxyAEE, calledAET, files);
+                } else if (isMatchingAET) {
+                    LOG.debug("Found forward schedule for {}, but is inactive (days={}, hours={})", new Object[] {
+                            calledAET, entry.getValue().getSchedule().getDays(),
+                            entry.getValue().getSchedule().getHours() });
+                }
+            }
+    }
+
     private FileFilter fileFilter(final ProxyAEExtension proxyAEE, final String calledAET) {
         final long now = System.currentTimeMillis();
         return new FileFilter() {
@@ -560,8 +590,10 @@ public class ForwardFiles {
                         else 
                             moveToNoRetryPath(proxyAEE, calledAET, file, ": delete files without retry configuration is DISABLED");
                     else if (checkNumberOfRetries(proxyAEE, matchingRetry, suffix, file, calledAET)
-                            && checkSendFileDelay(now, file, matchingRetry))
+                            && checkSendFileDelay(now, file, matchingRetry)) {
+                        ProxyMetrics.getInstance().increment(Metric.RETRIES, matchingRetry.getRetryObject().name());
                         return true;
+                    }
                 } catch (IndexOutOfBoundsException e) {
                     LOG.error("Error parsing suffix of " + path);
                     try {
@@ -734,9 +766,9 @@ public class ForwardFiles {
             Properties prop = InfoFileUtils.getFileInfoProperties(proxyAEE, file);
             if (proxyAEE.isEnableAuditLog() && path.contains("cstore")) {
                 String callingAET = prop.getProperty("source-aet");
-                LogUtils.createStartLogFile(proxyAEE, AuditDirectory.DELETED, callingAET, calledAET, proxyAEE
+                LogUtils.writeStartRecord(proxyAEE, AuditDirectory.DELETED, callingAET, calledAET, proxyAEE
                         .getApplicationEntity().getConnections().get(0).getHostname(), prop, retry);
-                LogUtils.writeLogFile(proxyAEE, AuditDirectory.DELETED, callingAET, calledAET, prop, file.length(), retry);
+                LogUtils.writeInstanceRecord(proxyAEE, AuditDirectory.DELETED, callingAET, calledAET, prop, file.length(), retry);
             }
             if (path.contains("ncreate"))
                 deletePendingNSet(proxyAEE, calledAET, file, prop);
@@ -876,9 +908,9 @@ public class ForwardFiles {
         if (proxyAEE.isEnableAuditLog() && file.getPath().contains("cstore")) {
             String sourceAET = prop.getProperty("source-aet");
             int retry = getPreviousRetries(proxyAEE, file);
-            LogUtils.createStartLogFile(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, proxyAEE
+            LogUtils.writeStartRecord(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, proxyAEE
                     .getApplicationEntity().getConnections().get(0).getHostname(), prop, retry);
-            LogUtils.writeLogFile(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, prop, file.length(), retry);
+            LogUtils.writeInstanceRecord(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, prop, file.length(), retry);
         }
     }
 
@@ -1258,40 +1290,93 @@ public class ForwardFiles {
     }
 
     private void forwardScheduledCStoreFiles(ProxyAEExtension proxyAEE, String calledAET, File[] files) {
-        Collection<ForwardTask> forwardTasks = null;
-        forwardTasks = scanFiles(proxyAEE, calledAET, files);
+        ForwardOption fwdOption = proxyAEE.getForwardOptions().get(calledAET);
+        int parallelAssociations = fwdOption != null ? fwdOption.getParallelAssociations() : 1;
+        List<ForwardTask> forwardTasks = new ArrayList<ForwardTask>(
+                scanFiles(proxyAEE, calledAET, files, parallelAssociations));
         for (ForwardTask ft : forwardTasks)
-            try {
-                processForwardTask(proxyAEE, ft);
-            } catch (IOException e) {
-                LOG.error("Error processing forwarding files: " + e.getMessage());
-                if(LOG.isDebugEnabled())
-                    e.printStackTrace();
+            ft.sortFiles();
+        Collections.sort(forwardTasks, new Comparator<ForwardTask>() {
+
+            @Override
+            public int compare(ForwardTask ft1, ForwardTask ft2) {
+                return ft1.getPriorityRank() - ft2.getPriorityRank();
             }
+        });
+        if (parallelAssociations > 1 && forwardTasks.size() > 1) {
+            LOG.debug("Forwarding {} file(s) to {} on {} parallel associations",
+                    new Object[] { files.length, calledAET, forwardTasks.size() });
+            Iterator<ForwardTask> iter = forwardTasks.iterator();
+            ForwardTask first = iter.next();
+            while (iter.hasNext())
+                startProcessForwardTask(proxyAEE, iter.next());
+            processForwardTaskSafe(proxyAEE, first);
+        } else
+            for (ForwardTask ft : forwardTasks)
+                processForwardTaskSafe(proxyAEE, ft);
+    }
+
+    private void startProcessForwardTask(final ProxyAEExtension proxyAEE, final ForwardTask ft) {
+        ((ProxyDeviceExtension) proxyAEE.getApplicationEntity().getDevice()
+                .getDeviceExtension(ProxyDeviceExtension.class)).getFileForwardingExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                processForwardTaskSafe(proxyAEE, ft);
+            }
+        });
+    }
+
+    private void processForwardTaskSafe(ProxyAEExtension proxyAEE, ForwardTask ft) {
+        try {
+            processForwardTask(proxyAEE, ft);
+        } catch (IOException e) {
+            LOG.error("Error processing forwarding files: " + e.getMessage());
+            if(LOG.isDebugEnabled())
+                e.printStackTrace();
+        }
     }
 
     private void processForwardTask(ProxyAEExtension proxyAEE, ForwardTask ft) throws IOException {
         AAssociateRQ rq = ft.getAAssociateRQ();
         Association asInvoked = null;
-        Properties prop = InfoFileUtils.getFileInfoProperties(proxyAEE, ft.getFiles().get(0));
+        Properties prop = ft.getFileInfo(ft.getFiles().get(0));
+        Semaphore window = null;
         try {
-            if (proxyAEE.getForwardOptions().containsKey(rq.getCalledAET())
-                    && proxyAEE.getForwardOptions().get(rq.getCalledAET()).isConvertEmf2Sf())
+            ForwardOption fwdOption = proxyAEE.getForwardOptions().get(rq.getCalledAET());
+            if (fwdOption != null && fwdOption.isConvertEmf2Sf())
                 ForwardConnectionUtils.addReducedTS(rq);
-            asInvoked = proxyAEE.getApplicationEntity().connect(aeCache.findApplicationEntity(rq.getCalledAET()), rq);
+            int maxOpsInvoked = fwdOption == null ? 0
+                    : fwdOption.getMaxOpsInvoked() > 0 ? fwdOption.getMaxOpsInvoked()
+                    : fwdOption.isConvertEmf2Sf() ? EMF2SF_MAX_OPS_INVOKED
+                    : 0;
+            asInvoked = associationPool.connect(proxyAEE.getApplicationEntity(),
+                    aeCache.findApplicationEntity(rq.getCalledAET()), rq);
+            // connect proposes the maximum of the local connection, so the forward option is enforced here
+            maxOpsInvoked = ForwardConnectionUtils.getMaxOpsInvoked(asInvoked.getAAssociateAC(), maxOpsInvoked);
+            if (maxOpsInvoked > 0)
+                window = new Semaphore(maxOpsInvoked);
             for (File file : ft.getFiles()) {
-                prop = InfoFileUtils.getFileInfoProperties(proxyAEE, file);
+                prop = ft.getFileInfo(file);
                 try {
                     String cuid = prop.getProperty("sop-class-uid");
                     if (ForwardConnectionUtils.requiresMultiFrameConversion(proxyAEE, asInvoked.getCalledAET(), cuid))
-                        processEmf2Sf(proxyAEE, asInvoked, prop, file);
+                        processEmf2Sf(proxyAEE, asInvoked, prop, file, window);
                     else if (asInvoked.isReadyForDataTransfer()) {
-                        Attributes attrs = proxyAEE.parseAttributesWithLazyBulkData(asInvoked, file);
                         AttributeCoercion ac = proxyAEE.getAttributeCoercion(asInvoked.getCalledAET(), cuid, Role.SCU,
                                 Dimse.C_STORE_RQ);
-                        if (ac != null)
-                            attrs = AttributeCoercionUtils.coerceAttributes(asInvoked, proxyAEE, attrs, ac);
-                        forwardScheduledCStoreFile(proxyAEE, asInvoked, new DataWriterAdapter(attrs), -1, file, prop, file.length());
+                        // send the spooled dataset as is if neither coercion nor transcoding applies
+                        DataWriter data = ac == null
+                                ? DicomFileUtils.newDatasetWriter(file, ForwardConnectionUtils.getMatchingTsuid(
+                                        asInvoked, prop.getProperty("transfer-syntax-uid"), cuid))
+                                : null;
+                        if (data == null) {
+                            Attributes attrs = proxyAEE.parseAttributesWithLazyBulkData(asInvoked, file);
+                            if (ac != null)
+                                attrs = AttributeCoercionUtils.coerceAttributes(asInvoked, proxyAEE, attrs, ac);
+                            data = new DataWriterAdapter(attrs);
+                        }
+                        forwardScheduledCStoreFile(proxyAEE, asInvoked, data, null, file, prop, file.length(), window);
                     } else
                         renameFile(proxyAEE, RetryObject.ConnectionException.getSuffix(), file, rq.getCalledAET(), prop);
                 } catch (NoPresentationContextException npc) {
@@ -1329,7 +1414,7 @@ public class ForwardFiles {
             if (asInvoked != null) {
                 try {
                     asInvoked.waitForOutstandingRSP();
-                    asInvoked.release();
+                    associationPool.release(asInvoked);
                 } catch (InterruptedException e) {
                     LOG.error(asInvoked + ": unexpected exception: " + e.getMessage());
                     if(LOG.isDebugEnabled())
@@ -1343,8 +1428,8 @@ public class ForwardFiles {
         }
     }
 
-    private void processEmf2Sf(ProxyAEExtension proxyAEE, Association asInvoked, Properties prop, File file)
-            throws IOException, InterruptedException {
+    private void processEmf2Sf(ProxyAEExtension proxyAEE, Association asInvoked, Properties prop, File file,
+            Semaphore window) throws IOException, InterruptedException {
         Attributes src;
         DicomInputStream dis = new DicomInputStream(file);
         try {
@@ -1353,24 +1438,44 @@ public class ForwardFiles {
         } finally {
             dis.close();
         }
-        MultiframeExtractor extractor = new MultiframeExtractor();
         int n = src.getInt(Tag.NumberOfFrames, 1);
         long t = 0;
         boolean log = true;
-        for (int frameNumber = n - 1; frameNumber >= 0; --frameNumber) {
-            long t1 = System.currentTimeMillis();
-            Attributes attrs = extractor.extract(src, frameNumber);
-            long t2 = System.currentTimeMillis();
-            t = t + t2 - t1;
-            long length = attrs.calcLength(DicomEncodingOptions.DEFAULT, true);
-            if (asInvoked.isReadyForDataTransfer()) {
-                prop.setProperty("sop-instance-uid", attrs.getString(Tag.SOPInstanceUID));
-                prop.setProperty("sop-class-uid", attrs.getString(Tag.SOPClassUID));
-                forwardScheduledCStoreFile(proxyAEE, asInvoked, new DataWriterAdapter(attrs), frameNumber, file, prop, length);
-            } else {
-                log = false;
-                break;
+        ParallelFrameExtractor frames = new ParallelFrameExtractor(proxyAEE.getApplicationEntity().getDevice()
+                .getDeviceExtension(ProxyDeviceExtension.class).getFrameExtractionPool(), src,
+                proxyAEE.isEnableAuditLog());
+        MultiFrameForward multiFrame = new MultiFrameForward(proxyAEE, asInvoked, file, prop);
+        boolean sent = false;
+        try {
+            while (frames.hasNext()) {
+                long t1 = System.currentTimeMillis();
+                ParallelFrameExtractor.Frame frame = frames.next();
+                Attributes attrs = frame.attrs;
+                long t2 = System.currentTimeMillis();
+                t = t + t2 - t1;
+                if (asInvoked.isReadyForDataTransfer()) {
+                    // own copy per frame, as the response handlers of pipelined frames still refer to it
+                    Properties frameProp = new Properties();
+                    frameProp.putAll(prop);
+                    frameProp.setProperty("sop-instance-uid", attrs.getString(Tag.SOPInstanceUID));
+                    frameProp.setProperty("sop-class-uid", attrs.getString(Tag.SOPClassUID));
+                    forwardScheduledCStoreFile(proxyAEE, asInvoked, new DataWriterAdapter(attrs), multiFrame,
+                            file, frameProp, frame.length, window);
+                } else {
+                    // keep the file for the next forward attempt
+                    multiFrame.closed();
+                    log = false;
+                    break;
+                }
             }
+            sent = true;
+        } finally {
+            frames.cancel();
+            // on an exception the caller handles the file; pending responses must not touch it any more
+            if (sent)
+                multiFrame.allInvoked();
+            else
+                multiFrame.abort();
         }
         if (log)
             LOG.info("{}: extracted {} frames from multi-frame object {} in {}sec",
@@ -1378,32 +1483,44 @@ public class ForwardFiles {
     }
 
     private void forwardScheduledCStoreFile(final ProxyAEExtension proxyAEE, final Association asInvoked,
-            DataWriterAdapter data, final int frame, final File file, final Properties prop, final long fileSize) throws IOException,
-            InterruptedException {
+            DataWriter data, final MultiFrameForward multiFrame, final File file, final Properties prop,
+            final long fileSize, final Semaphore window) throws IOException, InterruptedException {
             final String cuid = prop.getProperty("sop-class-uid");
             final String iuid = prop.getProperty("sop-instance-uid");
             final String tsuid = prop.getProperty("transfer-syntax-uid");
+            final long start = System.nanoTime();
+            // completed once, either by the response, by close of the association or by a failed invoke
+            final AtomicBoolean completed = new AtomicBoolean();
             DimseRSPHandler rspHandler = new DimseRSPHandler(asInvoked.nextMessageID()) {
     
                 @Override
                 public void onDimseRSP(Association asInvoked, Attributes cmd, Attributes data) {
                     super.onDimseRSP(asInvoked, cmd, data);
+                    if (!completed.compareAndSet(false, true))
+                        return;
+
+                    releaseWindow(window);
+                    ProxyMetrics.getInstance().recordSince(Metric.FORWARD_TIME, asInvoked.getCalledAET(), start);
                     int status = cmd.getInt(Tag.Status, -1);
                     switch (status) {
                     case Status.Success:
                     case Status.CoercionOfDataElements: {
                         if (proxyAEE.isEnableAuditLog())
-                            LogUtils.writeLogFile(proxyAEE, AuditDirectory.TRANSFERRED, asInvoked.getCallingAET(),
+                            LogUtils.writeInstanceRecord(proxyAEE, AuditDirectory.TRANSFERRED, asInvoked.getCallingAET(),
                                     asInvoked.getRemoteAET(), prop, fileSize, -1);
-                        if (frame > 0)
-                            return;
-    
-                        deleteFile(asInvoked, file);
+                        if (multiFrame != null)
+                            multiFrame.completed(null);
+                        else
+                            deleteFile(asInvoked, file);
                         break;
                     }
                     default: {
                         LOG.debug("{}: failed to forward file {} with error status {}", new Object[] { asInvoked, file,
                                 Integer.toHexString(status) + 'H' });
+                        if (multiFrame != null) {
+                            multiFrame.completed('.' + Integer.toHexString(status) + 'H');
+                            break;
+                        }
                         try {
                             renameFile(proxyAEE, '.' + Integer.toHexString(status) + 'H', file, asInvoked.getCalledAET(),
                                     prop);
@@ -1416,14 +1533,120 @@ public class ForwardFiles {
                     }
                     }
                 }
+
+                @Override
+                public void onClose(Association asInvoked) {
+                    super.onClose(asInvoked);
+                    if (!completed.compareAndSet(false, true))
+                        return;
+
+                    releaseWindow(window);
+                    if (multiFrame != null) {
+                        multiFrame.closed();
+                        multiFrame.completed(null);
+                    }
+                }
             };
             if (proxyAEE.isEnableAuditLog()) {
                 String sourceAET = prop.getProperty("source-aet");
-                LogUtils.createStartLogFile(proxyAEE, AuditDirectory.TRANSFERRED, sourceAET, asInvoked.getRemoteAET(),
+                LogUtils.writeStartRecord(proxyAEE, AuditDirectory.TRANSFERRED, sourceAET, asInvoked.getRemoteAET(),
                         asInvoked.getConnection().getHostname(), prop, 0);
             }
             String ts = ForwardConnectionUtils.getMatchingTsuid(asInvoked, tsuid, cuid);
-            asInvoked.cstore(cuid, iuid, 0, data, ts, rspHandler);
+            if (window != null)
+                window.acquire();
+            boolean invoked = false;
+            if (multiFrame != null)
+                multiFrame.invoked();
+            try {
+                asInvoked.cstore(cuid, iuid, ForwardTask.priorityOf(prop), data, ts, rspHandler);
+                invoked = true;
+            } finally {
+                if (!invoked && completed.compareAndSet(false, true)) {
+                    releaseWindow(window);
+                    if (multiFrame != null)
+                        multiFrame.completed(null);
+                }
+            }
+    }
+
+    /**
+     * Tracks the outstanding C-STOREs of the frames of one multi-frame object.
+     * The spool file is deleted, or renamed on a failed frame, only after the
+     * responses of all frames arrived, as frames are sent asynchronously and
+     * their responses may arrive in any order.
+     */
+    private class MultiFrameForward {
+
+        private final ProxyAEExtension proxyAEE;
+        private final Association asInvoked;
+        private final File file;
+        private final Properties prop;
+        // held by the sender until all frames are invoked
+        private int outstanding = 1;
+        private String failedSuffix;
+        private boolean closed;
+        private boolean aborted;
+
+        MultiFrameForward(ProxyAEExtension proxyAEE, Association asInvoked, File file, Properties prop) {
+            this.proxyAEE = proxyAEE;
+            this.asInvoked = asInvoked;
+            this.file = file;
+            this.prop = prop;
+        }
+
+        synchronized void invoked() {
+            outstanding++;
+        }
+
+        synchronized void closed() {
+            closed = true;
+        }
+
+        void allInvoked() {
+            completed(null);
+        }
+
+        void abort() {
+            synchronized (this) {
+                aborted = true;
+            }
+            completed(null);
+        }
+
+        void completed(String suffix) {
+            String failed;
+            synchronized (this) {
+                if (suffix != null && failedSuffix == null)
+                    failedSuffix = suffix;
+                if (--outstanding > 0 || aborted)
+                    return;
+                if (failedSuffix == null && closed)
+                    return;
+                failed = failedSuffix;
+            }
+            if (failed == null) {
+                deleteFile(asInvoked, file);
+                return;
+            }
+            try {
+                renameFile(proxyAEE, failed, file, asInvoked.getCalledAET(), prop);
+            } catch (Exception e) {
+                LOG.error("{}: error renaming file {}: {}", new Object[] { asInvoked, file.getPath(), e.getMessage() });
+                if (LOG.isDebugEnabled())
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Frees one slot of the C-STORE window of a forward association. Called
+     * once per invoked operation, either on its response or on close of the
+     * association while the response is still outstanding.
+     */
+    private static void releaseWindow(Semaphore window) {
+        if (window != null)
+            window.release();
     }
 
     private Integer getPreviousRetries(ProxyAEExtension proxyAEE, File file) {
@@ -1443,8 +1666,12 @@ public class ForwardFiles {
         return 1;
     }
 
-    private Collection<ForwardTask> scanFiles(ProxyAEExtension proxyAEE,
-            String calledAET, File[] files) {
+    /**
+     * Claims the spooled files by renaming them to .snd and groups them into
+     * forward tasks. Package visible for dcm4chee-proxy-benchmarks.
+     */
+    Collection<ForwardTask> scanFiles(ProxyAEExtension proxyAEE,
+            String calledAET, File[] files, int parallelAssociations) {
         HashMap<String, ForwardTask> map = new HashMap<String, ForwardTask>(4);
         for (File file : files) {
             try {
@@ -1461,7 +1688,7 @@ public class ForwardFiles {
                                 LOG.debug("Adding file {} to forward tasks ",
                                         snd.getPath());
                                 addFileToFwdTaskMap(proxyAEE, calledAET, snd,
-                                        map);
+                                        map, parallelAssociations);
                                 LOG.debug(
                                         "Successfully added file {} to forward tasks , proceeding with scheduled send",
                                         snd.getPath());
@@ -1498,19 +1725,22 @@ public class ForwardFiles {
         return map.values();
     }
 
-    private void addFileToFwdTaskMap(ProxyAEExtension proxyAEE, String calledAET, File file, HashMap<String, ForwardTask> map)
-            throws IOException {
+    private void addFileToFwdTaskMap(ProxyAEExtension proxyAEE, String calledAET, File file,
+            HashMap<String, ForwardTask> map, int parallelAssociations) throws IOException {
         Properties prop = InfoFileUtils.getFileInfoProperties(proxyAEE, file);
         String callingAET = prop.containsKey("use-calling-aet") 
                 ? prop.getProperty("use-calling-aet") 
                 : prop.getProperty("source-aet");
         String cuid = prop.getProperty("sop-class-uid");
         String tsuid = prop.getProperty("transfer-syntax-uid");
-        ForwardTask forwardTask = map.get(callingAET);
+        String key = parallelAssociations > 1
+                ? callingAET + '\\' + partitionOf(prop.getProperty("study-iuid"), parallelAssociations)
+                : callingAET;
+        ForwardTask forwardTask = map.get(key);
         if (forwardTask == null) {
             LOG.debug("Creating new forward task for Calling AET {} and Called AET {}", callingAET, calledAET);
             forwardTask = new ForwardTask(callingAET, calledAET);
-            map.put(callingAET, forwardTask);
+            map.put(key, forwardTask);
         } else {
             LOG.debug("Loaded forward task for Calling AET {} and Called AET {}", callingAET, forwardTask
                     .getAAssociateRQ().getCalledAET());
@@ -1518,7 +1748,15 @@ public class ForwardFiles {
         LOG.debug(
                 "Add file {} to forward task for Calling AET {} and Called AET {} with SOP Class UID = {} and Transfer Syntax UID = {}",
                 new Object[] { file.getPath(), callingAET, forwardTask.getAAssociateRQ().getCalledAET(), cuid, tsuid });
-        forwardTask.addFile(file, cuid, tsuid);
+        forwardTask.addFile(file, prop);
+    }
+
+    /**
+     * Maps a study to one of the parallel forward tasks of a destination, so
+     * all objects of a study are sent in order on the same association.
+     */
+    private static int partitionOf(String studyIUID, int parallelAssociations) {
+        return studyIUID != null ? (studyIUID.hashCode() & Integer.MAX_VALUE) % parallelAssociations : 0;
     }
 
     private static Attributes readFileMetaInformation(File file) throws IOException {
@@ -40,7 +40,11 @@ package org.dcm4chee.proxy.forward;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Properties;
 
 import org.dcm4che3.data.UID;
 import org.dcm4che3.net.pdu.AAssociateRQ;
@@ -53,13 +57,18 @@ class ForwardTask {
 
     private final AAssociateRQ aarq = new AAssociateRQ();
     private final ArrayList<File> files = new ArrayList<File>();
+    private final HashMap<File, Properties> fileInfos = new HashMap<File, Properties>();
+    private final HashMap<String, Integer> studyOrder = new HashMap<String, Integer>();
+    private int priorityRank = Integer.MAX_VALUE;
 
     public ForwardTask(String callingAET, String calledAET) {
         aarq.setCallingAET(callingAET);
         aarq.setCalledAET(calledAET);
     }
 
-    public void addFile(File file, String cuid, String tsuid) {
+    public void addFile(File file, Properties fileInfo) {
+        String cuid = fileInfo.getProperty("sop-class-uid");
+        String tsuid = fileInfo.getProperty("transfer-syntax-uid");
         if (aarq.addPresentationContextFor(cuid, tsuid)) {
             if (!UID.ExplicitVRLittleEndian.equals(tsuid))
                 aarq.addPresentationContextFor(cuid, UID.ExplicitVRLittleEndian);
@@ -72,6 +81,62 @@ class ForwardTask {
 //                            aarq.getNumberOfPresentationContexts() * 2 + 1,
 //                            cuid, tsuid));
         files.add(file);
+        fileInfos.put(file, fileInfo);
+        String studyIUID = fileInfo.getProperty("study-iuid");
+        if (studyIUID != null && !studyOrder.containsKey(studyIUID))
+            studyOrder.put(studyIUID, studyOrder.size());
+        priorityRank = Math.min(priorityRank, priorityRank(fileInfo));
+    }
+
+    /**
+     * Orders the files by the C-STORE priority they were received with (HIGH
+     * before MEDIUM before LOW) and, within the same priority, keeps the
+     * objects of one study together in the order the studies were spooled.
+     */
+    public void sortFiles() {
+        Collections.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File f1, File f2) {
+                Properties p1 = fileInfos.get(f1);
+                Properties p2 = fileInfos.get(f2);
+                int diff = priorityRank(p1) - priorityRank(p2);
+                return diff != 0 ? diff : studyOrder(p1) - studyOrder(p2);
+            }
+        });
+    }
+
+    /**
+     * Returns the rank of the most urgent file of this task; lower values are
+     * forwarded first.
+     */
+    public int getPriorityRank() {
+        return priorityRank;
+    }
+
+    private int studyOrder(Properties fileInfo) {
+        Integer order = studyOrder.get(fileInfo.getProperty("study-iuid"));
+        return order != null ? order : Integer.MAX_VALUE;
+    }
+
+    static int priorityOf(Properties fileInfo) {
+        try {
+            return Integer.parseInt(fileInfo.getProperty("priority", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Priority (0000,0700): 0 = MEDIUM, 1 = HIGH, 2 = LOW
+    private static int priorityRank(Properties fileInfo) {
+        switch (priorityOf(fileInfo)) {
+        case 1:
+            return 0;
+        case 2:
+            return 2;
+        default:
+            return 1;
+        }
     }
 
     public final AAssociateRQ getAAssociateRQ() {
@@ -81,4 +146,8 @@ class ForwardTask {
     public final List<File> getFiles() {
         return files;
     }
+
+    public final Properties getFileInfo(File file) {
+        return fileInfos.get(file);
+    }
 }
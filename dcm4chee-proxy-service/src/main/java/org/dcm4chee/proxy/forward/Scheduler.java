@@ -38,6 +38,10 @@
 
 package org.dcm4chee.proxy.forward;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -49,6 +53,10 @@ import org.dcm4che3.net.Device;
 import org.dcm4chee.proxy.audit.AuditLog;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Gunter Zeilinger <gunterze@gmail.com>
@@ -56,17 +64,22 @@ import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
  */
 public class Scheduler {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Scheduler.class);
+
     private final Device device;
     private final AuditLog log;
     private ScheduledFuture<?> timer;
     private ApplicationEntityCache aeCache;
     private ScheduledExecutorService scheduledExecutor;
+    private final ForwardAssociationPool associationPool;
+    private final HashMap<String, List<File>> spooledCStoreFiles = new HashMap<String, List<File>>();
 
     public Scheduler(ApplicationEntityCache aeCache, Device device, AuditLog log) {
         this.aeCache = aeCache;
         this.device = device;
         this.log = log;
         this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.associationPool = new ForwardAssociationPool(device);
     }
 
     public void start() {
@@ -77,18 +90,73 @@ public class Scheduler {
             public void run() {
                 for (ApplicationEntity ae : device.getApplicationEntities()) {
                     if (ae.getAEExtension(ProxyAEExtension.class) != null) {
-                        new ForwardFiles(aeCache).execute(ae);
+                        new ForwardFiles(aeCache, associationPool).execute(ae);
                         log.scanLogDir(ae);
+                        releaseExpiredCMoveMessageIDs(ae);
                     }
                 }
             }
         }, period, period, TimeUnit.SECONDS);
     }
 
+    private void releaseExpiredCMoveMessageIDs(ApplicationEntity ae) {
+        ProxyAEExtension proxyAEE = ae.getAEExtension(ProxyAEExtension.class);
+        int expired = proxyAEE.removeExpiredCMoveInfoObjects();
+        if (expired > 0) {
+            LOG.warn("{}: released {} C-MOVE message ids without C-MOVE response after {}s",
+                    new Object[] { ae.getAETitle(), expired, proxyAEE.getCMoveMessageIDTimeout() });
+            ProxyMetrics.getInstance().add(Metric.CMOVE_MESSAGE_ID_EXPIRED, ae.getAETitle(), expired);
+        }
+        ProxyMetrics.getInstance().set(Metric.CMOVE_ACTIVE, ae.getAETitle(), proxyAEE.getActiveCMoveCount());
+    }
+
     public void stop() {
         if (timer != null) {
             timer.cancel(true);
             timer = null;
         }
+        associationPool.releaseAll();
+    }
+
+    public ForwardAssociationPool getAssociationPool() {
+        return associationPool;
+    }
+
+    /**
+     * Hands over a newly spooled C-STORE file for forwarding without waiting
+     * for the next scan of the spool directory. Files spooled for the same
+     * destination within the configured notification delay are forwarded
+     * together. The periodic scan still picks up files which are not handed
+     * over: files to retry, files for destinations with an inactive forward
+     * schedule and files spooled before a restart.
+     */
+    public void notifySpooledCStoreFile(final ApplicationEntity ae, final String calledAET, File file) {
+        int delay = device.getDeviceExtension(ProxyDeviceExtension.class).getSpoolNotificationDelay();
+        if (delay < 0 || timer == null)
+            return;
+
+        final String key = ae.getAETitle() + '\\' + calledAET;
+        synchronized (spooledCStoreFiles) {
+            List<File> files = spooledCStoreFiles.get(key);
+            if (files != null) {
+                files.add(file);
+                return;
+            }
+            files = new ArrayList<File>();
+            files.add(file);
+            spooledCStoreFiles.put(key, files);
+        }
+        scheduledExecutor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                List<File> files;
+                synchronized (spooledCStoreFiles) {
+                    files = spooledCStoreFiles.remove(key);
+                }
+                new ForwardFiles(aeCache, associationPool).forwardSpooledCStoreFiles(ae, calledAET,
+                        files.toArray(new File[files.size()]));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 }
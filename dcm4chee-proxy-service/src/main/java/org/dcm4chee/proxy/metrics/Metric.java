@@ -0,0 +1,116 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.metrics;
+
+/**
+ * Metrics collected by the proxy. Each metric is kept per value of its label
+ * (e.g. per calling AET) and exported in Prometheus naming.
+ */
+public enum Metric {
+    ASSOCIATIONS_ACCEPTED("dcm4chee_proxy_associations_accepted_total", Type.COUNTER, "calling_aet",
+            "Accepted associations"),
+    CSTORE_RECEIVED_BYTES("dcm4chee_proxy_cstore_received_bytes", Type.HISTOGRAM_BYTES, "calling_aet",
+            "Size of spooled C-STORE data sets"),
+    CSTORE_RECEIVE_TIME("dcm4chee_proxy_cstore_receive_seconds", Type.HISTOGRAM_NANOS, "calling_aet",
+            "Processing time of received C-STORE requests"),
+    SPOOL_WRITE_TIME("dcm4chee_proxy_spool_write_seconds", Type.HISTOGRAM_NANOS, "called_aet",
+            "Time to write a spool file, excluding fsync"),
+    SPOOL_FSYNC_TIME("dcm4chee_proxy_spool_fsync_seconds", Type.HISTOGRAM_NANOS, "called_aet",
+            "Time to fsync a spool file"),
+    FORWARD_TIME("dcm4chee_proxy_forward_seconds", Type.HISTOGRAM_NANOS, "destination_aet",
+            "Time from forwarding a C-STORE request to its response"),
+    SPOOL_QUEUE_DEPTH("dcm4chee_proxy_spool_queue_depth", Type.GAUGE, "called_aet",
+            "C-STORE objects due for forwarding found by the last scheduler run"),
+    RETRIES("dcm4chee_proxy_retries_total", Type.COUNTER, "retry_object",
+            "Spooled objects selected for another forward attempt"),
+    STOW_REQUEST_BYTES("dcm4chee_proxy_stow_request_bytes", Type.HISTOGRAM_BYTES, "aet",
+            "Size of STOW-RS requests"),
+    STOW_REQUEST_TIME("dcm4chee_proxy_stow_request_seconds", Type.HISTOGRAM_NANOS, "aet",
+            "Processing time of STOW-RS requests"),
+    DIMSE_FANOUT_TIME("dcm4chee_proxy_dimse_fanout_seconds", Type.HISTOGRAM_NANOS, "dimse",
+            "Time from receiving a C-FIND/C-GET/C-MOVE request to the final response of all destinations"),
+    DIMSE_DESTINATION_TIME("dcm4chee_proxy_dimse_destination_seconds", Type.HISTOGRAM_NANOS, "destination_aet",
+            "Time from forwarding a C-FIND/C-GET/C-MOVE request to the final response of the destination"),
+    XSLT_TEMPLATES_CACHE("dcm4chee_proxy_xslt_templates_cache_total", Type.COUNTER, "result",
+            "Look-ups of compiled XSL style sheets by cache hit or miss"),
+    PIX_CACHE("dcm4chee_proxy_pix_cache_total", Type.COUNTER, "result",
+            "PIX queries by cache hit, negative cache hit or miss"),
+    QUERY_CACHE("dcm4chee_proxy_query_cache_total", Type.COUNTER, "result",
+            "C-FIND requests by cache hit or miss"),
+    CMOVE_ACTIVE("dcm4chee_proxy_cmove_active", Type.GAUGE, "aet",
+            "Forwarded C-MOVE requests holding a Move Originator Message ID"),
+    CMOVE_MESSAGE_ID_EXPIRED("dcm4chee_proxy_cmove_message_id_expired_total", Type.COUNTER, "aet",
+            "Move Originator Message IDs released after the C-MOVE Message ID timeout"),
+    CMOVE_MESSAGE_ID_EXHAUSTED("dcm4chee_proxy_cmove_message_id_exhausted_total", Type.COUNTER, "aet",
+            "C-MOVE requests rejected because all Move Originator Message IDs were in use"),
+    PREFETCH("dcm4chee_proxy_prefetch_total", Type.COUNTER, "result",
+            "Prefetches of prior studies by scheduled, duplicate, rejected, completed or failed");
+
+    public enum Type {
+        COUNTER, GAUGE, HISTOGRAM_NANOS, HISTOGRAM_BYTES
+    }
+
+    private final String name;
+    private final Type type;
+    private final String labelName;
+    private final String help;
+
+    private Metric(String name, Type type, String labelName, String help) {
+        this.name = name;
+        this.type = type;
+        this.labelName = labelName;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getLabelName() {
+        return labelName;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+}
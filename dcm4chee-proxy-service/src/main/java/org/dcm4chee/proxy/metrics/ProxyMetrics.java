@@ -0,0 +1,269 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+
+/**
+ * Registry of the proxy {@link Metric}s. Exported as dynamic MBean with one
+ * read-only attribute per metric and label value, and in the Prometheus text
+ * format by {@link MetricsRS}.
+ */
+public class ProxyMetrics implements DynamicMBean {
+
+    private static final ProxyMetrics instance = new ProxyMetrics();
+
+    private final Map<Metric, ConcurrentMap<String, Object>> metrics =
+            new EnumMap<Metric, ConcurrentMap<String, Object>>(Metric.class);
+
+    private ProxyMetrics() {
+        for (Metric metric : Metric.values())
+            metrics.put(metric, new ConcurrentHashMap<String, Object>());
+    }
+
+    public static ProxyMetrics getInstance() {
+        return instance;
+    }
+
+    public void increment(Metric metric, String label) {
+        add(metric, label, 1);
+    }
+
+    public void add(Metric metric, String label, long delta) {
+        ((AtomicLong) get(metric, label)).addAndGet(delta);
+    }
+
+    public void set(Metric metric, String label, long value) {
+        ((AtomicLong) get(metric, label)).set(value);
+    }
+
+    public void record(Metric metric, String label, long value) {
+        ((Histogram) get(metric, label)).record(value);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, taken from
+     * {@link System#nanoTime()}.
+     */
+    public void recordSince(Metric metric, String label, long startNanos) {
+        record(metric, label, System.nanoTime() - startNanos);
+    }
+
+    public void reset() {
+        for (ConcurrentMap<String, Object> values : metrics.values())
+            values.clear();
+    }
+
+    private Object get(Metric metric, String label) {
+        ConcurrentMap<String, Object> values = metrics.get(metric);
+        String key = label != null ? label : "";
+        Object value = values.get(key);
+        if (value == null) {
+            Object newValue = newValue(metric.getType());
+            value = values.putIfAbsent(key, newValue);
+            if (value == null)
+                value = newValue;
+        }
+        return value;
+    }
+
+    private static Object newValue(Metric.Type type) {
+        switch (type) {
+        case HISTOGRAM_NANOS:
+            return new Histogram(Histogram.NANOS_BOUNDS);
+        case HISTOGRAM_BYTES:
+            return new Histogram(Histogram.BYTES_BOUNDS);
+        default:
+            return new AtomicLong();
+        }
+    }
+
+    private static double scale(Metric.Type type) {
+        return type == Metric.Type.HISTOGRAM_NANOS ? 1e-9 : 1.0;
+    }
+
+    public void writePrometheusTextFormat(Writer w) throws IOException {
+        for (Metric metric : Metric.values()) {
+            Map<String, Object> values = new TreeMap<String, Object>(metrics.get(metric));
+            if (values.isEmpty())
+                continue;
+            Metric.Type type = metric.getType();
+            w.write("# HELP " + metric.getName() + ' ' + metric.getHelp() + '\n');
+            w.write("# TYPE " + metric.getName() + ' ' + prometheusType(type) + '\n');
+            for (Entry<String, Object> entry : values.entrySet()) {
+                String label = metric.getLabelName() + "=\"" + escape(entry.getKey()) + '"';
+                if (entry.getValue() instanceof AtomicLong) {
+                    w.write(metric.getName() + '{' + label + "} " + ((AtomicLong) entry.getValue()).get() + '\n');
+                    continue;
+                }
+                Histogram h = (Histogram) entry.getValue();
+                long[] bounds = h.getBounds();
+                for (int i = 0; i < bounds.length; i++)
+                    w.write(metric.getName() + "_bucket{" + label + ",le=\"" + bounds[i] * scale(type) + "\"} "
+                            + h.getCumulativeCount(i) + '\n');
+                w.write(metric.getName() + "_bucket{" + label + ",le=\"+Inf\"} "
+                        + h.getCumulativeCount(bounds.length) + '\n');
+                w.write(metric.getName() + "_sum{" + label + "} " + h.getSum() * scale(type) + '\n');
+                w.write(metric.getName() + "_count{" + label + "} " + h.getCount() + '\n');
+            }
+        }
+        w.flush();
+    }
+
+    private static String prometheusType(Metric.Type type) {
+        switch (type) {
+        case COUNTER:
+            return "counter";
+        case GAUGE:
+            return "gauge";
+        default:
+            return "histogram";
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int labelStart = attribute.indexOf('{');
+        if (labelStart > 0 && attribute.endsWith("}")) {
+            String name = attribute.substring(0, labelStart);
+            String label = attribute.substring(labelStart + 1, attribute.length() - 1);
+            for (Metric metric : Metric.values()) {
+                if (!name.startsWith(metric.getName()))
+                    continue;
+                Object value = metrics.get(metric).get(label);
+                if (value == null)
+                    continue;
+                String suffix = name.substring(metric.getName().length());
+                if (value instanceof AtomicLong) {
+                    if (suffix.isEmpty())
+                        return ((AtomicLong) value).get();
+                    continue;
+                }
+                Histogram h = (Histogram) value;
+                if (suffix.equals("_count"))
+                    return h.getCount();
+                if (suffix.equals("_sum"))
+                    return h.getSum() * scale(metric.getType());
+                if (suffix.equals("_max"))
+                    return h.getMax() * scale(metric.getType());
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes)
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skip attributes of metrics reset in the meantime
+            }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        if ("reset".equals(actionName) && (params == null || params.length == 0)) {
+            reset();
+            return null;
+        }
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+        for (Metric metric : Metric.values())
+            for (Entry<String, Object> entry : new TreeMap<String, Object>(metrics.get(metric)).entrySet()) {
+                String label = '{' + entry.getKey() + '}';
+                if (entry.getValue() instanceof AtomicLong)
+                    attrs.add(attributeInfo(metric.getName() + label, Long.class, metric.getHelp()));
+                else {
+                    attrs.add(attributeInfo(metric.getName() + "_count" + label, Long.class, metric.getHelp()));
+                    attrs.add(attributeInfo(metric.getName() + "_sum" + label, Double.class, metric.getHelp()));
+                    attrs.add(attributeInfo(metric.getName() + "_max" + label, Double.class, metric.getHelp()));
+                }
+            }
+        return new MBeanInfo(getClass().getName(), "dcm4chee-proxy metrics",
+                attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null,
+                new MBeanOperationInfo[] { new MBeanOperationInfo("reset", "Reset all metrics",
+                        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION) },
+                new MBeanNotificationInfo[0]);
+    }
+
+    private static MBeanAttributeInfo attributeInfo(String name, Class<?> type, String description) {
+        return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+    }
+}
@@ -40,7 +40,14 @@ package org.dcm4chee.proxy.pix;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.dcm4che3.conf.api.ConfigurationException;
 import org.dcm4che3.conf.api.hl7.HL7ApplicationCache;
@@ -56,10 +63,19 @@ import org.dcm4che3.net.hl7.HL7Application;
 import org.dcm4che3.net.hl7.HL7DeviceExtension;
 import org.dcm4che3.net.service.DicomServiceException;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Queries the configured PIX Manager for the patient IDs cross-referenced to
+ * a patient ID. Results are cached for {@code dcmPIXCacheTimeout} seconds,
+ * results without other patient IDs for {@code dcmPIXCacheNegativeTimeout}
+ * seconds. MLLP connections to the PIX Manager are kept open and reused by
+ * subsequent queries.
+ * 
  * @author Gunter Zeilinger <gunterze@gmail.com>
  * @author Michael Backhaus <michael.backhaus@gmail.com>
  */
@@ -67,8 +83,42 @@ public class PIXConsumer {
 
     private static final Logger LOG = LoggerFactory.getLogger(PIXConsumer.class);
 
+    private static final long MAX_CONNECTION_IDLE_TIME = 60000L;
+
     private final HL7ApplicationCache hl7AppCache;
 
+    private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    private final HashMap<String, Deque<PooledConnection>> idleConnections =
+            new HashMap<String, Deque<PooledConnection>>();
+
+    private static class CacheEntry {
+
+        final IDWithIssuer[] pids;
+        final long expires;
+
+        CacheEntry(IDWithIssuer[] pids, long expires) {
+            this.pids = pids;
+            this.expires = expires;
+        }
+    }
+
+    private static class PooledConnection {
+
+        final Connection conn;
+        final MLLPConnection mllpConn;
+        long since;
+
+        PooledConnection(Connection conn, MLLPConnection mllpConn) {
+            this.conn = conn;
+            this.mllpConn = mllpConn;
+        }
+
+        void close() {
+            conn.close(mllpConn.getSocket());
+        }
+    }
+
     public PIXConsumer(HL7ApplicationCache hl7AppCache) {
         this.hl7AppCache = hl7AppCache;
     }
@@ -86,9 +136,19 @@ public class PIXConsumer {
         if (pixManager == null || pixManager.isEmpty())
             throw new DicomServiceException(Status.ProcessingFailure, "undefined Remote PIX Manager");
 
+        Device dev = pae.getApplicationEntity().getDevice();
+        ProxyDeviceExtension proxyDevExt = dev.getDeviceExtension(ProxyDeviceExtension.class);
+        String key = pixConsumer + '\\' + pixManager + '\\' + pid;
+        IDWithIssuer[] cached = getCached(key);
+        if (cached != null) {
+            ProxyMetrics.getInstance().increment(Metric.PIX_CACHE, cached.length > 1 ? "hit" : "negative-hit");
+            LOG.debug("Use cached PIX query result for {}", pid);
+            return cached.clone();
+        }
+        ProxyMetrics.getInstance().increment(Metric.PIX_CACHE, "miss");
+
         ArrayList<IDWithIssuer> pids = new ArrayList<IDWithIssuer>();
         pids.add(pid);
-        Device dev = pae.getApplicationEntity().getDevice();
         HL7DeviceExtension hl7 = dev.getDeviceExtension(HL7DeviceExtension.class);
         HL7Application pixConsumerApp = hl7.getHL7Application(pixConsumer);
         if (pixConsumerApp == null)
@@ -108,23 +168,156 @@ public class PIXConsumer {
             for (String pidCX : pidCXs)
                 pids.add(new IDWithIssuer(pidCX));
         }
-        return pids.toArray(new IDWithIssuer[pids.size()]);
+        IDWithIssuer[] result = pids.toArray(new IDWithIssuer[pids.size()]);
+        if (proxyDevExt != null && isApplicationAccept(rsp))
+            if (pids.size() > 1)
+                putCached(key, result.clone(), proxyDevExt.getPIXCacheTimeout(), proxyDevExt.getPIXCacheMaxSize());
+            else if (isNoDataFound(rsp))
+                putCached(key, result.clone(), proxyDevExt.getPIXCacheNegativeTimeout(),
+                        proxyDevExt.getPIXCacheMaxSize());
+        return result;
+    }
+
+    private static boolean isApplicationAccept(HL7Message rsp) {
+        HL7Segment msa = rsp.getSegment("MSA");
+        return msa != null && "AA".equals(msa.getField(1, ""));
+    }
+
+    /**
+     * Returns {@code true} if the PIX Manager does not know the queried
+     * Patient ID, which is signaled by Query Response Status NF. Error
+     * responses are not cached.
+     */
+    private static boolean isNoDataFound(HL7Message rsp) {
+        HL7Segment qak = rsp.getSegment("QAK");
+        return qak != null && "NF".equals(qak.getField(2, ""));
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Closes all idle MLLP connections to PIX Managers.
+     */
+    public void closeConnections() {
+        List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        synchronized (idleConnections) {
+            for (Deque<PooledConnection> deque : idleConnections.values())
+                toClose.addAll(deque);
+            idleConnections.clear();
+        }
+        for (PooledConnection pooled : toClose)
+            pooled.close();
+    }
+
+    private IDWithIssuer[] getCached(String key) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry == null)
+                return null;
+            if (entry.expires <= System.currentTimeMillis()) {
+                cache.remove(key);
+                return null;
+            }
+            return entry.pids;
+        }
+    }
+
+    private void putCached(String key, IDWithIssuer[] pids, int timeout, int maxSize) {
+        if (timeout <= 0 || maxSize <= 0)
+            return;
+
+        synchronized (cache) {
+            cache.put(key, new CacheEntry(pids, System.currentTimeMillis() + timeout * 1000L));
+            for (Iterator<CacheEntry> iter = cache.values().iterator(); cache.size() > maxSize;) {
+                iter.next();
+                iter.remove();
+            }
+        }
     }
 
     private HL7Message pixQuery(HL7Application pixConsumerApp, HL7Application pixManagerApp, HL7Message qbp)
             throws IncompatibleConnectionException, IOException, GeneralSecurityException {
+        String key = pixConsumerApp.getApplicationName() + '\\' + pixManagerApp.getApplicationName();
+        String charset = pixConsumerApp.getHL7DefaultCharacterSet();
+        byte[] msg = qbp.getBytes(charset);
+        PooledConnection pooled = pollIdleConnection(key);
+        if (pooled != null) {
+            try {
+                HL7Message rsp = pixQuery(pixConsumerApp, pixManagerApp, pooled, msg, charset);
+                releaseConnection(key, pooled);
+                return rsp;
+            } catch (IOException e) {
+                LOG.debug("{}: Pooled connection to {} failed, reconnect: {}", new Object[] {
+                        pixConsumerApp.getApplicationName(), pixManagerApp.getApplicationName(), e.getMessage() });
+                pooled.close();
+            }
+        }
         CompatibleConnection cc = pixConsumerApp.findCompatibelConnection(pixManagerApp);
         Connection conn = cc.getLocalConnection();
-        MLLPConnection mllpConn = pixConsumerApp.connect(conn, cc.getRemoteConnection());
+        pooled = new PooledConnection(conn, pixConsumerApp.connect(conn, cc.getRemoteConnection()));
+        boolean success = false;
         try {
-            String charset = pixConsumerApp.getHL7DefaultCharacterSet();
-            LOG.debug("{}: Executing PIX Query to {}", pixConsumerApp.getApplicationName(),
-                    pixManagerApp.getApplicationName());
-            mllpConn.writeMessage(qbp.getBytes(charset));
-            HL7Message rsp = HL7Message.parse(mllpConn.readMessage(), charset);
+            HL7Message rsp = pixQuery(pixConsumerApp, pixManagerApp, pooled, msg, charset);
+            success = true;
             return rsp;
         } finally {
-            conn.close(mllpConn.getSocket());
+            if (success)
+                releaseConnection(key, pooled);
+            else
+                pooled.close();
+        }
+    }
+
+    private HL7Message pixQuery(HL7Application pixConsumerApp, HL7Application pixManagerApp,
+            PooledConnection pooled, byte[] msg, String charset) throws IOException {
+        LOG.debug("{}: Executing PIX Query to {}", pixConsumerApp.getApplicationName(),
+                pixManagerApp.getApplicationName());
+        pooled.mllpConn.writeMessage(msg);
+        byte[] rsp = pooled.mllpConn.readMessage();
+        if (rsp == null)
+            throw new IOException("Connection closed by " + pixManagerApp.getApplicationName());
+        return HL7Message.parse(rsp, charset);
+    }
+
+    private PooledConnection pollIdleConnection(String key) {
+        List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        PooledConnection match = null;
+        long expired = System.currentTimeMillis() - MAX_CONNECTION_IDLE_TIME;
+        synchronized (idleConnections) {
+            Deque<PooledConnection> deque = idleConnections.get(key);
+            if (deque != null)
+                while (match == null && !deque.isEmpty()) {
+                    PooledConnection pooled = deque.pollFirst();
+                    if (pooled.since < expired || pooled.mllpConn.getSocket().isClosed())
+                        toClose.add(pooled);
+                    else
+                        match = pooled;
+                }
+        }
+        for (PooledConnection pooled : toClose)
+            pooled.close();
+        return match;
+    }
+
+    private void releaseConnection(String key, PooledConnection pooled) {
+        List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+        pooled.since = System.currentTimeMillis();
+        long expired = pooled.since - MAX_CONNECTION_IDLE_TIME;
+        synchronized (idleConnections) {
+            Deque<PooledConnection> deque = idleConnections.get(key);
+            if (deque == null) {
+                deque = new ArrayDeque<PooledConnection>();
+                idleConnections.put(key, deque);
+            }
+            deque.addFirst(pooled);
+            while (deque.peekLast().since < expired)
+                toClose.add(deque.pollLast());
         }
+        for (PooledConnection idle : toClose)
+            idle.close();
     }
 }
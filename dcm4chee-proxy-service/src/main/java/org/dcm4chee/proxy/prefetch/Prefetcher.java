@@ -0,0 +1,361 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.prefetch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che3.conf.api.ApplicationEntityCache;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.DimseRSPHandler;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4chee.proxy.conf.ProxyAEExtension;
+import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retrieves the most recent prior studies of a patient from the archive
+ * configured by {@code dcmPrefetchArchiveAETitle} to
+ * {@code dcmPrefetchDestinationAETitle} in the background, when a procedure
+ * for the patient is started. Prefetches run on {@code dcmPrefetchThreads}
+ * threads, at most {@code dcmPrefetchRate} are started per minute, and
+ * further prefetches of the same patient within
+ * {@code dcmPrefetchSuppressInterval} seconds are ignored.
+ */
+public class Prefetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Prefetcher.class);
+
+    private static final int MAX_QUEUED_PREFETCHES = 1000;
+
+    private static final int MAX_SUPPRESSED_PATIENTS = 10000;
+
+    private final Device device;
+    private final ConcurrentHashMap<String, Long> lastPrefetches = new ConcurrentHashMap<String, Long>();
+    private final Object startTimeLock = new Object();
+    private ThreadPoolExecutor executor;
+    private long nextStartTime = System.nanoTime();
+
+    public Prefetcher(Device device) {
+        this.device = device;
+    }
+
+    public synchronized void start() {
+        if (executor != null)
+            return;
+
+        int threads = device.getDeviceExtension(ProxyDeviceExtension.class).getPrefetchThreads();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PREFETCHES));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Schedules the retrieve of prior studies of patient {@code patientID}
+     * for the proxy AE {@code ae}, if a prefetch archive is configured for
+     * it. Studies with Study Instance UIDs in {@code currentStudyIUIDs} are
+     * not retrieved.
+     */
+    public void schedule(ApplicationEntity ae, ApplicationEntityCache aeCache, String patientID, String issuer,
+            Collection<String> currentStudyIUIDs) {
+        ProxyAEExtension proxyAEE = ae.getAEExtension(ProxyAEExtension.class);
+        String archiveAET = proxyAEE.getPrefetchArchiveAETitle();
+        if (archiveAET == null || patientID == null)
+            return;
+
+        ThreadPoolExecutor executor = getExecutor();
+        if (executor == null)
+            return;
+
+        String destinationAET = proxyAEE.getPrefetchDestinationAETitle();
+        if (destinationAET == null)
+            destinationAET = ae.getAETitle();
+        String key = archiveAET + '\\' + destinationAET + '\\' + patientID + "^^^" + (issuer != null ? issuer : "");
+        long now = System.currentTimeMillis();
+        if (isSuppressed(key, now)) {
+            LOG.debug("{}: ignore prefetch of priors of patient {} within suppress interval", ae.getAETitle(),
+                    patientID);
+            ProxyMetrics.getInstance().increment(Metric.PREFETCH, "duplicate");
+            return;
+        }
+
+        try {
+            executor.execute(new PrefetchTask(proxyAEE, aeCache, archiveAET, destinationAET, patientID, issuer,
+                    currentStudyIUIDs, key, now));
+        } catch (RejectedExecutionException e) {
+            lastPrefetches.remove(key, now);
+            LOG.warn("{}: reject prefetch of priors of patient {}: {} prefetches pending", new Object[] {
+                    ae.getAETitle(), patientID, executor.getQueue().size() });
+            ProxyMetrics.getInstance().increment(Metric.PREFETCH, "rejected");
+            return;
+        }
+        LOG.info("{}: scheduled prefetch of priors of patient {} from {} to {}", new Object[] { ae.getAETitle(),
+                patientID, archiveAET, destinationAET });
+        ProxyMetrics.getInstance().increment(Metric.PREFETCH, "scheduled");
+    }
+
+    private boolean isSuppressed(String key, long now) {
+        long interval = device.getDeviceExtension(ProxyDeviceExtension.class).getPrefetchSuppressInterval() * 1000L;
+        if (lastPrefetches.size() > MAX_SUPPRESSED_PATIENTS)
+            removeExpired(now - interval);
+        Long last = lastPrefetches.putIfAbsent(key, now);
+        while (last != null) {
+            if (now - last < interval)
+                return true;
+            if (lastPrefetches.replace(key, last, now))
+                return false;
+            last = lastPrefetches.putIfAbsent(key, now);
+        }
+        return false;
+    }
+
+    private void removeExpired(long before) {
+        for (Iterator<Map.Entry<String, Long>> iter = lastPrefetches.entrySet().iterator(); iter.hasNext();)
+            if (iter.next().getValue() < before)
+                iter.remove();
+    }
+
+    /**
+     * Blocks until the next prefetch may be started according to the
+     * configured {@code dcmPrefetchRate}.
+     */
+    private void awaitStartTime() throws InterruptedException {
+        int rate = device.getDeviceExtension(ProxyDeviceExtension.class).getPrefetchRate();
+        if (rate <= 0)
+            return;
+
+        long delay;
+        synchronized (startTimeLock) {
+            long now = System.nanoTime();
+            long startTime = nextStartTime - now > 0 ? nextStartTime : now;
+            nextStartTime = startTime + TimeUnit.MINUTES.toNanos(1) / rate;
+            delay = startTime - now;
+        }
+        if (delay > 0)
+            TimeUnit.NANOSECONDS.sleep(delay);
+    }
+
+    private class PrefetchTask implements Runnable {
+
+        private final ProxyAEExtension proxyAEE;
+        private final ApplicationEntityCache aeCache;
+        private final String archiveAET;
+        private final String destinationAET;
+        private final String patientID;
+        private final String issuer;
+        private final Collection<String> currentStudyIUIDs;
+        private final String key;
+        private final long scheduled;
+
+        PrefetchTask(ProxyAEExtension proxyAEE, ApplicationEntityCache aeCache, String archiveAET,
+                String destinationAET, String patientID, String issuer, Collection<String> currentStudyIUIDs,
+                String key, long scheduled) {
+            this.proxyAEE = proxyAEE;
+            this.aeCache = aeCache;
+            this.archiveAET = archiveAET;
+            this.destinationAET = destinationAET;
+            this.patientID = patientID;
+            this.issuer = issuer;
+            this.currentStudyIUIDs = currentStudyIUIDs;
+            this.key = key;
+            this.scheduled = scheduled;
+        }
+
+        @Override
+        public void run() {
+            String aet = proxyAEE.getApplicationEntity().getAETitle();
+            try {
+                awaitStartTime();
+                int failed = prefetch();
+                if (failed == 0) {
+                    ProxyMetrics.getInstance().increment(Metric.PREFETCH, "completed");
+                    return;
+                }
+                LOG.warn("{}: failed to retrieve {} prior studies of patient {} from {} to {}", new Object[] { aet,
+                        failed, patientID, archiveAET, destinationAET });
+            } catch (InterruptedException e) {
+                LOG.info("{}: cancelled prefetch of priors of patient {}", aet, patientID);
+            } catch (Exception e) {
+                LOG.error("{}: error prefetching priors of patient {} from {}: {}", new Object[] { aet, patientID,
+                        archiveAET, e.getMessage() });
+                if (LOG.isDebugEnabled())
+                    e.printStackTrace();
+            }
+            // allow another prefetch for the patient without waiting for the suppress interval
+            lastPrefetches.remove(key, scheduled);
+            ProxyMetrics.getInstance().increment(Metric.PREFETCH, "failed");
+        }
+
+        private int prefetch() throws Exception {
+            ApplicationEntity ae = proxyAEE.getApplicationEntity();
+            AAssociateRQ aarq = new AAssociateRQ();
+            aarq.setCallingAET(ae.getAETitle());
+            aarq.setCalledAET(archiveAET);
+            aarq.addPresentationContext(new PresentationContext(1,
+                    UID.StudyRootQueryRetrieveInformationModelFIND, UID.ImplicitVRLittleEndian));
+            aarq.addPresentationContext(new PresentationContext(3,
+                    UID.StudyRootQueryRetrieveInformationModelMOVE, UID.ImplicitVRLittleEndian));
+            Association as = ae.connect(aeCache.findApplicationEntity(archiveAET), aarq);
+            try {
+                List<String> priors = findPriorStudies(as);
+                LOG.info("{}: retrieve {} prior studies of patient {} from {} to {}", new Object[] { as,
+                        priors.size(), patientID, archiveAET, destinationAET });
+                int failed = 0;
+                for (String studyIUID : priors)
+                    if (!moveStudy(as, studyIUID))
+                        failed++;
+                return failed;
+            } finally {
+                as.release();
+            }
+        }
+
+        private List<String> findPriorStudies(Association as) throws Exception {
+            Attributes keys = new Attributes(6);
+            keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+            keys.setString(Tag.PatientID, VR.LO, patientID);
+            if (issuer != null)
+                keys.setString(Tag.IssuerOfPatientID, VR.LO, issuer);
+            keys.setNull(Tag.StudyInstanceUID, VR.UI);
+            keys.setNull(Tag.StudyDate, VR.DA);
+            keys.setNull(Tag.StudyTime, VR.TM);
+            final List<Attributes> matches = new ArrayList<Attributes>();
+            final int[] findStatus = { -1 };
+            DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
+
+                @Override
+                public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+                    super.onDimseRSP(as, cmd, data);
+                    int status = cmd.getInt(Tag.Status, -1);
+                    if (Status.isPending(status)) {
+                        if (data != null)
+                            matches.add(data);
+                    } else
+                        findStatus[0] = status;
+                }
+            };
+            as.cfind(UID.StudyRootQueryRetrieveInformationModelFIND, Priority.LOW, keys,
+                    UID.ImplicitVRLittleEndian, rspHandler);
+            as.waitForOutstandingRSP();
+            if (findStatus[0] != Status.Success)
+                throw new Exception("C-FIND failed with status " + Integer.toHexString(findStatus[0]) + 'H');
+
+            Collections.sort(matches, new Comparator<Attributes>() {
+
+                @Override
+                public int compare(Attributes o1, Attributes o2) {
+                    return dateTimeOf(o2).compareTo(dateTimeOf(o1));
+                }
+            });
+            int maxStudies = proxyAEE.getPrefetchMaxStudies();
+            List<String> priors = new ArrayList<String>(maxStudies);
+            for (Attributes match : matches) {
+                if (priors.size() >= maxStudies)
+                    break;
+                String studyIUID = match.getString(Tag.StudyInstanceUID);
+                if (studyIUID != null && !currentStudyIUIDs.contains(studyIUID) && !priors.contains(studyIUID))
+                    priors.add(studyIUID);
+            }
+            return priors;
+        }
+
+        private boolean moveStudy(Association as, String studyIUID) throws Exception {
+            Attributes keys = new Attributes(2);
+            keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+            keys.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+            final int[] moveStatus = { -1 };
+            DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
+
+                @Override
+                public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
+                    super.onDimseRSP(as, cmd, data);
+                    int status = cmd.getInt(Tag.Status, -1);
+                    if (!Status.isPending(status))
+                        moveStatus[0] = status;
+                }
+            };
+            as.cmove(UID.StudyRootQueryRetrieveInformationModelMOVE, Priority.LOW, keys,
+                    UID.ImplicitVRLittleEndian, destinationAET, rspHandler);
+            as.waitForOutstandingRSP();
+            if (moveStatus[0] == Status.Success)
+                return true;
+
+            LOG.warn("{}: C-MOVE of prior study {} to {} completed with status {}H", new Object[] { as,
+                    studyIUID, destinationAET, Integer.toHexString(moveStatus[0]) });
+            return false;
+        }
+    }
+
+    private static String dateTimeOf(Attributes attrs) {
+        return attrs.getString(Tag.StudyDate, "") + attrs.getString(Tag.StudyTime, "");
+    }
+}
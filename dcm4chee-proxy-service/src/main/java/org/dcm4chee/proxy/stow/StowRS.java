@@ -37,7 +37,6 @@
  * ***** END LICENSE BLOCK ***** */
 package org.dcm4chee.proxy.stow;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -54,6 +53,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -106,8 +106,11 @@ import org.dcm4chee.proxy.conf.ForwardOption;
 import org.dcm4chee.proxy.conf.ForwardRule;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
+import org.dcm4chee.proxy.metrics.Metric;
+import org.dcm4chee.proxy.metrics.ProxyMetrics;
 import org.dcm4chee.proxy.resteasy.LogInterceptor;
 import org.dcm4chee.proxy.utils.AttributeCoercionUtils;
+import org.dcm4chee.proxy.utils.DicomFileUtils;
 import org.dcm4chee.proxy.utils.ForwardConnectionUtils;
 import org.dcm4chee.proxy.utils.ForwardRuleUtils;
 import org.dcm4chee.proxy.utils.LogUtils;
@@ -148,6 +151,7 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
     private Sequence failedSOPSequence;
     List<ForwardRule> fwdRules = new ArrayList<>();
     HashMap<String, Association> fwdAssocs = new HashMap<>();
+    HashMap<String, Semaphore> fwdWindows = new HashMap<>();
     HashMap<String, List<String>> presentationContext = new HashMap<>();
 
     @Override
@@ -173,32 +177,48 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
     public Response storeInstances(@PathParam("StudyInstanceUID") String studyInstanceUID, InputStream in)
             throws DicomServiceException {
         LOG.info("{} >> STOW-RS[{}, Content-Type={}]", new Object[] { this, request.getRequestURL(), contentType });
-        init(studyInstanceUID);
+        long start = System.nanoTime();
         try {
-            parser.parse(in, this);
-        } catch (IOException e) {
-            throw new WebApplicationException(Status.BAD_REQUEST);
+            init(studyInstanceUID);
+            initResponse();
+            try {
+                parser.parse(in, this);
+            } catch (IOException e) {
+                throw new WebApplicationException(Status.BAD_REQUEST);
+            }
+            creatorType.storeInstances(this);
+            closeForwardAssociations();
+            return response();
+        } finally {
+            // associations opened before an aborted upload
+            closeForwardAssociations();
+            ProxyMetrics metrics = ProxyMetrics.getInstance();
+            metrics.recordSince(Metric.STOW_REQUEST_TIME, aet, start);
+            if (request.getContentLength() >= 0)
+                metrics.record(Metric.STOW_REQUEST_BYTES, aet, request.getContentLength());
         }
-        initResponse();
-        creatorType.storeInstances(this);
-        closeForwardAssociations();
-        return response();
     }
 
     private void closeForwardAssociations() {
         for (Association as : fwdAssocs.values())
-            try {
-                as.waitForOutstandingRSP();
-                as.release();
-            } catch (InterruptedException e) {
-                LOG.error(as + ": unexpected exception: " + e.getMessage());
-                if (LOG.isDebugEnabled())
-                    e.printStackTrace();
-            } catch (IOException e) {
-                LOG.error(as + ": failed to release association: " + e.getMessage());
-                if (LOG.isDebugEnabled())
-                    e.printStackTrace();
-            }
+            closeForwardAssociation(as);
+        fwdAssocs.clear();
+        fwdWindows.clear();
+    }
+
+    private void closeForwardAssociation(Association as) {
+        try {
+            as.waitForOutstandingRSP();
+            as.release();
+        } catch (InterruptedException e) {
+            LOG.error(as + ": unexpected exception: " + e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        } catch (IOException e) {
+            LOG.error(as + ": failed to release association: " + e.getMessage());
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        }
     }
 
     private Response response() {
@@ -229,8 +249,8 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
 //            response.setString(Tag.RetrieveURI, VR.UT, wadoURL + studyInstanceUID);
 //        else
             response.setNull(Tag.RetrieveURI, VR.UT);
-        sopSequence = response.newSequence(Tag.ReferencedSOPSequence, files.size());
-        failedSOPSequence = response.newSequence(Tag.FailedSOPSequence, files.size());
+        sopSequence = response.newSequence(Tag.ReferencedSOPSequence, 10);
+        failedSOPSequence = response.newSequence(Tag.FailedSOPSequence, 10);
     }
 
     @Override
@@ -281,6 +301,8 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
         FileInfo fileInfo = new FileInfo(file, mediaType);
         if (creatorType.isBulkdata(mediaType))
             bulkdata.put(bulkdataURI, fileInfo);
+        else if (creatorType == CreatorType.DicomCreator)
+            processDicomInstance(fileInfo);
         else {
             files.add(fileInfo);
         }
@@ -422,45 +444,69 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
 
     private void processDicomInstances() {
         setPresentationContext();
-        for (FileInfo fileInfo : files) {
-            LOG.debug("{}: processing DICOM instance {}", this, fileInfo.file);
+        for (FileInfo fileInfo : files)
+            processDicomInstance(fileInfo, fileInfo.attrs);
+    }
+
+    /**
+     * Forward a DICOM instance as soon as its part was received, while later
+     * parts of the request are still arriving.
+     */
+    private void processDicomInstance(FileInfo fileInfo) {
+        try {
+            fileInfo.attrs = readFileMetaInformation(fileInfo.file);
+        } catch (IOException e) {
+            LOG.error("{}: error reading file meta information from {}: {}", new Object[] { this, fileInfo.file, e });
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+            addFailedForward(null, org.dcm4che3.net.Status.UnableToProcess);
+            deleteFile(fileInfo.file);
+            return;
+        }
+        addPresentationContext(fileInfo.attrs);
+        processDicomInstance(fileInfo, fileInfo.attrs);
+    }
+
+    private void processDicomInstance(FileInfo fileInfo, Attributes fmi) {
+        LOG.debug("{}: processing DICOM instance {}", this, fileInfo.file);
+        try {
+            Attributes attrs;
+            DicomInputStream in = new DicomInputStream(fileInfo.file);
             try {
-                Attributes attrs;
-                DicomInputStream in = new DicomInputStream(fileInfo.file);
-                try {
-                    LOG.debug("{}: readDataset from {}", this, fileInfo.file);
-                    in.setIncludeBulkData(IncludeBulkData.URI);
-                    attrs = in.readDataset(-1, -1);
-                } finally {
-                    SafeClose.close(in);
-                }
-                Attributes fmi = fileInfo.attrs;
-                String sourceAET = request.getRemoteAddr();
-                //TODO - Host AET Mapping
-                Properties prop = setInfoFileProperties(fmi, attrs, sourceAET);
-                validateStudyIUID(attrs);
-                String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
-                attrs = AttributeCoercionUtils.coerceAttributes(proxyAEE, sourceAET, cuid, TransferCapability.Role.SCU,
-                        Dimse.C_STORE_RQ, attrs, this);
-                if (proxyAEE.getApplicationEntity().getAETitle().equals(aet)) {
-                    if (fwdRules.isEmpty())
-                        setForwardRules(attrs, cuid, sourceAET);
-                    processForwardRules(fileInfo, fmi, attrs, sourceAET, prop, cuid);
-                } else
-                    processSingleForwardDestination(fileInfo, attrs, fmi, null, prop, sourceAET);
-            } catch (ConfigurationException e) {
-                LOG.error("{}: error processing {}: {}", new Object[]{this, fileInfo.file, e});
-                if (LOG.isDebugEnabled())
-                    e.printStackTrace();
-                throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
-            } catch (IOException e) {
-                LOG.error("{}: error processing {}: {}", new Object[] { this, fileInfo.file, e });
-                if (LOG.isDebugEnabled())
-                    e.printStackTrace();
+                LOG.debug("{}: readDataset from {}", this, fileInfo.file);
+                in.setIncludeBulkData(IncludeBulkData.URI);
+                attrs = in.readDataset(-1, -1);
             } finally {
-                if (fileInfo.file.exists())
-                    deleteFile(fileInfo.file);
+                SafeClose.close(in);
             }
+            String sourceAET = request.getRemoteAddr();
+            //TODO - Host AET Mapping
+            Properties prop = setInfoFileProperties(fmi, attrs, sourceAET);
+            if (Proxy.getInstance() != null)
+                Proxy.getInstance().invalidateCachedQueries(attrs.getString(Tag.PatientID),
+                        attrs.getString(Tag.StudyInstanceUID), false);
+            validateStudyIUID(attrs);
+            String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
+            attrs = AttributeCoercionUtils.coerceAttributes(proxyAEE, sourceAET, cuid, TransferCapability.Role.SCU,
+                    Dimse.C_STORE_RQ, attrs, this);
+            if (proxyAEE.getApplicationEntity().getAETitle().equals(aet)) {
+                if (fwdRules.isEmpty())
+                    setForwardRules(attrs, cuid, sourceAET);
+                processForwardRules(fileInfo, fmi, attrs, sourceAET, prop, cuid);
+            } else
+                processSingleForwardDestination(fileInfo, attrs, fmi, null, prop, sourceAET);
+        } catch (ConfigurationException e) {
+            LOG.error("{}: error processing {}: {}", new Object[]{this, fileInfo.file, e});
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+            throw new WebApplicationException(Status.INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            LOG.error("{}: error processing {}: {}", new Object[] { this, fileInfo.file, e });
+            if (LOG.isDebugEnabled())
+                e.printStackTrace();
+        } finally {
+            if (fileInfo.file.exists())
+                deleteFile(fileInfo.file);
         }
     }
 
@@ -469,15 +515,7 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
         for (FileInfo fileInfo : files) {
             try {
                 fileInfo.attrs = readFileMetaInformation(fileInfo.file);
-                String cuid = fileInfo.attrs.getString(Tag.MediaStorageSOPClassUID);
-                String tsuid = fileInfo.attrs.getString(Tag.TransferSyntaxUID);
-                if (presentationContext.containsKey(cuid)) {
-                    List<String> tsuids = presentationContext.get(cuid);
-                    if(!tsuids.contains(tsuid))
-                        tsuids.add(tsuid);
-                } else {
-                    presentationContext.put(cuid, new ArrayList<String>(Arrays.asList(tsuid)));
-                }
+                addPresentationContext(fileInfo.attrs);
             } catch (IOException e) {
                 LOG.error("{}: error reading file meta information from {}: {}", new Object[] { this, fileInfo.file, e });
                 if (LOG.isDebugEnabled())
@@ -492,6 +530,18 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
         }
     }
 
+    private void addPresentationContext(Attributes fmi) {
+        String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
+        String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        if (presentationContext.containsKey(cuid)) {
+            List<String> tsuids = presentationContext.get(cuid);
+            if(!tsuids.contains(tsuid))
+                tsuids.add(tsuid);
+        } else {
+            presentationContext.put(cuid, new ArrayList<String>(Arrays.asList(tsuid)));
+        }
+    }
+
     private void processForwardRules(FileInfo fileInfo, Attributes fmi, Attributes attrs, String sourceAET,
             Properties prop, String cuid) {
         if (fwdRules.isEmpty()) {
@@ -522,8 +572,11 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
                         }
                         Attributes destAttrs = AttributeCoercionUtils.coerceAttributes(proxyAEE, destinationAET, cuid,
                                 TransferCapability.Role.SCP, Dimse.C_STORE_RQ, attrs, this);
-                        dst = storeDestinationAETCopy(fileInfo, fmi, destinationAET, destAttrs);
+                        dst = storeDestinationAETCopy(fileInfo, fmi, destinationAET, destAttrs, attrs);
                         storeInfoFile(prop, dst);
+                        if (Proxy.getInstance() != null)
+                            Proxy.getInstance().notifySpooledCStoreFile(proxyAEE.getApplicationEntity(),
+                                    destinationAET, dst);
                         prevDestinationAETs.add(destinationAET);
                     } catch (Exception e) {
                         LOG.info("{}: Failed to store file to destination AET directory: {}", this, e);
@@ -546,24 +599,13 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
         }
     }
 
-    private File storeDestinationAETCopy(FileInfo fileInfo, Attributes fmi, String destinationAET, Attributes destAttrs)
-            throws IOException, FileNotFoundException, SyncFailedException {
+    private File storeDestinationAETCopy(FileInfo fileInfo, Attributes fmi, String destinationAET, Attributes destAttrs,
+            Attributes attrs) throws IOException, FileNotFoundException, SyncFailedException {
         LOG.debug("{}: store file {} to destination aet dir {}", new Object[]{this, fileInfo.file, destinationAET});
         File dst;
         dst = createDestinationAETFile(fileInfo.file.getName(), destinationAET);
-        FileOutputStream fout = new FileOutputStream(dst);
-        BufferedOutputStream bout = new BufferedOutputStream(fout);
-        DicomOutputStream out = new DicomOutputStream(bout, UID.ExplicitVRLittleEndian);
-        try {
-            out.writeDataset(fmi, destAttrs);
-            fout.flush();
-            fout.getFD().sync();
-            LOG.info("{}: copy {} to {}", new Object[]{this, fileInfo.file.getPath(), dst.getPath()});
-        } finally {
-            out.close();
-            bout.close();
-            fout.close();
-        }
+        DicomFileUtils.writeCoercedCopy(fileInfo.file, dst, fmi, destAttrs, attrs);
+        LOG.info("{}: copy {} to {}", new Object[]{this, fileInfo.file.getPath(), dst.getPath()});
         return dst;
     }
 
@@ -632,6 +674,9 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
             String cuid = fmi.getString(Tag.MediaStorageSOPClassUID);
             String sourceAET = request.getRemoteAddr();
             Properties prop = setInfoFileProperties(fmi, fileInfo.attrs, sourceAET);
+            if (Proxy.getInstance() != null)
+                Proxy.getInstance().invalidateCachedQueries(fileInfo.attrs.getString(Tag.PatientID),
+                        fileInfo.attrs.getString(Tag.StudyInstanceUID), false);
             if (proxyAEE.getApplicationEntity().getAETitle().equals(aet))
                 processForwardRules(fileInfo, fmi, cuid, sourceAET, prop);
             else
@@ -794,10 +839,17 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
         ForwardOption forwardOption = proxyAEE.getForwardOptions().get(calledAET);
         if (forwardOption == null || forwardOption.getSchedule().isNow(new GregorianCalendar())) {
             try {
-                Association as;
-                if (fwdAssocs.containsKey(calledAET))
-                    as = fwdAssocs.get(calledAET);
-                else {
+                Association as = fwdAssocs.get(calledAET);
+                if (as != null && !as.getAAssociateRQ().containsPresentationContextFor(
+                        fmi.getString(Tag.MediaStorageSOPClassUID), fmi.getString(Tag.TransferSyntaxUID))) {
+                    // first instance of this SOP Class or Transfer Syntax in the request
+                    LOG.debug("{}: re-open association to {} with additional presentation context", this, calledAET);
+                    fwdAssocs.remove(calledAET);
+                    fwdWindows.remove(calledAET);
+                    closeForwardAssociation(as);
+                    as = null;
+                }
+                if (as == null) {
                     AAssociateRQ rq = new AAssociateRQ();
                     for (String cuid : presentationContext.keySet()) {
                         List<String> tsuids = presentationContext.get(cuid);
@@ -810,8 +862,13 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
                     rq.setCallingAET(callingAET);
                     as = ForwardConnectionUtils.openForwardAssociation(proxyAEE, rule, callingAET, calledAET, rq);
                     fwdAssocs.put(calledAET, as);
+                    // connect proposes the maximum of the local connection, so the forward option is enforced here
+                    int maxOpsInvoked = ForwardConnectionUtils.getMaxOpsInvoked(as.getAAssociateAC(),
+                            forwardOption != null ? forwardOption.getMaxOpsInvoked() : 0);
+                    if (maxOpsInvoked > 0)
+                        fwdWindows.put(calledAET, new Semaphore(maxOpsInvoked));
                 }
-                forwardFile(as, attrs, fileInfo.file, prop, fileInfo.file.length(), fmi);
+                forwardFile(as, attrs, fileInfo.file, prop, fileInfo.file.length(), fmi, fwdWindows.get(calledAET));
             } catch (IOException | InterruptedException | IncompatibleConnectionException | GeneralSecurityException e) {
                 LOG.error("{}: Error opening forward connection: {}", this, e);
                 if (LOG.isDebugEnabled())
@@ -839,6 +896,8 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
             file = createDestinationAETFile(fileInfo.file.getName(), aet);
             writeDicomInstance(file, fmi, destAttrs);
             storeInfoFile(prop, file);
+            if (Proxy.getInstance() != null)
+                Proxy.getInstance().notifySpooledCStoreFile(proxyAEE.getApplicationEntity(), aet, file);
             setSopRef(fmi, fileInfo.attrs);
         } catch (Exception e) {
             LOG.info("{}: Storage Failed {}", this, e);
@@ -853,21 +912,25 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
     }
 
     private void forwardFile(Association as, final Attributes attrs, final File file, final Properties prop,
-            final long fileSize, final Attributes fmi) {
+            final long fileSize, final Attributes fmi, final Semaphore window) {
         final String cuid = prop.getProperty("sop-class-uid");
         final String iuid = prop.getProperty("sop-instance-uid");
         final String tsuid = prop.getProperty("transfer-syntax-uid");
+        final long start = System.nanoTime();
         DimseRSPHandler rspHandler = new DimseRSPHandler(as.nextMessageID()) {
 
             @Override
             public void onDimseRSP(Association as, Attributes cmd, Attributes data) {
                 super.onDimseRSP(as, cmd, data);
+                ProxyMetrics.getInstance().recordSince(Metric.FORWARD_TIME, as.getCalledAET(), start);
+                if (window != null)
+                    window.release();
                 int status = cmd.getInt(Tag.Status, -1);
                 switch (status) {
                 case org.dcm4che3.net.Status.Success:
                 case org.dcm4che3.net.Status.CoercionOfDataElements: {
                     if (proxyAEE.isEnableAuditLog())
-                        LogUtils.writeLogFile(proxyAEE, AuditDirectory.TRANSFERRED, as.getCallingAET(),
+                        LogUtils.writeInstanceRecord(proxyAEE, AuditDirectory.TRANSFERRED, as.getCallingAET(),
                                 as.getRemoteAET(), prop, fileSize, -1);
                     setSopRef(fmi, attrs);
                     break;
@@ -886,15 +949,29 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
                 }
                 }
             }
+
+            @Override
+            public void onClose(Association as) {
+                super.onClose(as);
+                if (window != null)
+                    window.release();
+            }
         };
+        boolean acquired = false;
         try {
             if (proxyAEE.isEnableAuditLog()) {
                 String sourceAET = prop.getProperty("source-aet");
-                LogUtils.createStartLogFile(proxyAEE, AuditDirectory.TRANSFERRED, sourceAET, as.getRemoteAET(), as
+                LogUtils.writeStartRecord(proxyAEE, AuditDirectory.TRANSFERRED, sourceAET, as.getRemoteAET(), as
                         .getConnection().getHostname(), prop, 0);
             }
+            if (window != null) {
+                window.acquire();
+                acquired = true;
+            }
             as.cstore(cuid, iuid, 0, new DataWriterAdapter(attrs), tsuid, rspHandler);
         } catch (Exception e) {
+            if (acquired)
+                window.release();
             LOG.error("{}: forward {} failed: {}", new Object[] { this, file, e });
             if (LOG.isDebugEnabled())
                 e.printStackTrace();
@@ -931,9 +1008,9 @@ public class StowRS implements MultipartParser.Handler, StreamingOutput {
             Properties prop) throws IOException {
         if (proxyAEE.isEnableAuditLog() && file.getPath().contains("cstore")) {
             String sourceAET = prop.getProperty("source-aet");
-            LogUtils.createStartLogFile(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, proxyAEE.getApplicationEntity()
+            LogUtils.writeStartRecord(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, proxyAEE.getApplicationEntity()
                     .getConnections().get(0).getHostname(), prop, 0);
-            LogUtils.writeLogFile(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, prop, file.length(), 0);
+            LogUtils.writeInstanceRecord(proxyAEE, AuditDirectory.FAILED, sourceAET, calledAET, prop, file.length(), 0);
         }
     }
 }
@@ -41,13 +41,17 @@ package org.dcm4chee.proxy.utils;
 import java.io.IOException;
 import java.util.Arrays;
 
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.TransformerHandler;
+
 import org.dcm4che3.conf.api.AttributeCoercion;
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.io.SAXTransformer;
+import org.dcm4che3.io.ContentHandlerAdapter;
 import org.dcm4che3.io.SAXWriter;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.TransferCapability.Role;
+import org.dcm4chee.proxy.coercion.CoercionProgram;
 import org.dcm4chee.proxy.conf.ProxyAEExtension;
 import org.dcm4chee.proxy.conf.ProxyDeviceExtension;
 import org.slf4j.Logger;
@@ -85,11 +89,15 @@ public class AttributeCoercionUtils {
                     ac.getAETitles().length == 0 ? "" : ", aet=" + Arrays.toString(ac.getAETitles()),
                     ac.getSOPClasses().length == 0 ? "" : ", sopClass=" + Arrays.toString(ac.getSOPClasses())
         });
+        if (CoercionProgram.isCoercionProgram(ac.getURI()))
+            return coerceAttributes(source, proxyAEE, tmp, ac.getURI());
         Attributes modify = new Attributes();
         try {
             ProxyDeviceExtension proxyDevExt = proxyAEE.getApplicationEntity().getDevice()
                     .getDeviceExtension(ProxyDeviceExtension.class);
-            SAXWriter w = SAXTransformer.getSAXWriter(proxyDevExt.getTemplates(ac.getURI()), modify);
+            TransformerHandler th = XSLTUtils.newTransformerHandler(proxyDevExt, ac.getURI());
+            th.setResult(new SAXResult(new ContentHandlerAdapter(modify)));
+            SAXWriter w = new SAXWriter(th);
             w.setIncludeKeyword(false);
             w.write(tmp);
         } catch (Exception e) {
@@ -102,4 +110,17 @@ public class AttributeCoercionUtils {
         return tmp;
     }
 
+    private static Attributes coerceAttributes(Object source, ProxyAEExtension proxyAEE, Attributes tmp, String uri) {
+        try {
+            CoercionProgram.forURI(uri).apply(tmp);
+        } catch (IllegalArgumentException e) {
+            LOG.error("{}: Invalid attribute coercion {}: {}", new Object[] { source, uri, e.getMessage() });
+            return tmp;
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("{}: Attribute coercion result:{}{}",
+                    new Object[] { source, proxyAEE.getNewline(), tmp.toString(Integer.MAX_VALUE, 200) });
+        return tmp;
+    }
+
 }
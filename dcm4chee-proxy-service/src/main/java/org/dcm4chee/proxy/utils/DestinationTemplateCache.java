@@ -0,0 +1,247 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.util.StreamUtils;
+import org.dcm4che3.util.StringUtils;
+import org.dcm4che3.util.TagUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the destinations returned by XSL destination templates of forward
+ * rules. The attributes a template reads are inferred from its
+ * {@code DicomAttribute[@tag='ggggeeee']} and
+ * {@code DicomAttribute[@keyword='...']} references; results are cached by
+ * the values of these attributes and the Calling and Called AET passed to
+ * the template. Templates which reference attributes in other ways (e.g. by
+ * iterating over all {@code DicomAttribute} elements), which read sequence
+ * attributes, which do not reference any attribute or which include other
+ * style sheets or documents are not cached.
+ */
+public class DestinationTemplateCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DestinationTemplateCache.class);
+
+    private static final int MAX_ENTRIES_PER_TEMPLATE = 1000;
+
+    private static final Pattern DICOM_ATTRIBUTE = Pattern.compile("DicomAttribute");
+    private static final Pattern TAG_OR_KEYWORD = Pattern.compile("@\\s*(tag|keyword)\\b");
+    private static final Pattern EXTERNAL_REF = Pattern.compile(
+            "xsl:include|xsl:import|\\bdocument\\s*\\(|\\bkey\\s*\\(");
+    private static final Pattern TAG_REF = Pattern.compile(
+            "DicomAttribute\\s*\\[\\s*@tag\\s*=\\s*(['\"])([0-9A-Fa-f]{8})\\1\\s*\\]");
+    private static final Pattern KEYWORD_REF = Pattern.compile(
+            "DicomAttribute\\s*\\[\\s*@keyword\\s*=\\s*(['\"])(\\w+)\\1\\s*\\]");
+
+    private static final int[] NOT_CACHEABLE = {};
+
+    private final ConcurrentHashMap<String, int[]> tagsByTemplate = new ConcurrentHashMap<String, int[]>();
+    private final ConcurrentHashMap<String, Map<String, List<String>>> resultsByTemplate =
+            new ConcurrentHashMap<String, Map<String, List<String>>>();
+
+    /**
+     * Returns the cache key of {@code data} for template {@code uri}, or
+     * {@code null} if the results of the template cannot be cached.
+     */
+    public String keyOf(String uri, Attributes data, String callingAET, String calledAET) {
+        int[] tags = tagsOf(uri);
+        if (tags == NOT_CACHEABLE)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        sb.append(callingAET).append('\0').append(calledAET);
+        for (int tag : tags) {
+            String[] values = data.getStrings(tag);
+            sb.append('\0');
+            if (values != null)
+                sb.append(StringUtils.concat(values, '\\'));
+            else if (data.contains(tag))
+                sb.append('\1');
+        }
+        return sb.toString();
+    }
+
+    public List<String> get(String uri, String key) {
+        Map<String, List<String>> results = resultsByTemplate.get(uri);
+        if (results == null)
+            return null;
+        synchronized (results) {
+            return results.get(key);
+        }
+    }
+
+    public void put(String uri, String key, List<String> destinationAETs) {
+        Map<String, List<String>> results = resultsByTemplate.get(uri);
+        if (results == null) {
+            results = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                    return size() > MAX_ENTRIES_PER_TEMPLATE;
+                }
+            };
+            Map<String, List<String>> prev = resultsByTemplate.putIfAbsent(uri, results);
+            if (prev != null)
+                results = prev;
+        }
+        synchronized (results) {
+            results.put(key, Collections.unmodifiableList(new ArrayList<String>(destinationAETs)));
+        }
+    }
+
+    public void clear() {
+        tagsByTemplate.clear();
+        resultsByTemplate.clear();
+    }
+
+    private int[] tagsOf(String uri) {
+        int[] tags = tagsByTemplate.get(uri);
+        if (tags == null) {
+            tags = inferTags(uri);
+            tagsByTemplate.put(uri, tags);
+        }
+        return tags;
+    }
+
+    private static int[] inferTags(String uri) {
+        String xsl;
+        try {
+            xsl = readTemplate(uri);
+        } catch (IOException e) {
+            LOG.info("Cannot read destination template {}, results will not be cached: {}", uri, e.getMessage());
+            return NOT_CACHEABLE;
+        }
+        return inferTags(uri, xsl);
+    }
+
+    /**
+     * Returns the tags of the attributes read by the destination template
+     * {@code xsl}, or an empty array if its results cannot be cached.
+     */
+    static int[] inferTags(String uri, String xsl) {
+        Matcher external = EXTERNAL_REF.matcher(xsl);
+        if (external.find())
+            return notCacheable(uri, "use of " + external.group());
+        ArrayList<Integer> tags = new ArrayList<Integer>();
+        int refs = 0;
+        Matcher m = TAG_REF.matcher(xsl);
+        while (m.find()) {
+            refs++;
+            addTag(tags, (int) Long.parseLong(m.group(2), 16));
+        }
+        m = KEYWORD_REF.matcher(xsl);
+        while (m.find()) {
+            refs++;
+            int tag = ElementDictionary.tagForKeyword(m.group(2), null);
+            if (tag == -1)
+                return notCacheable(uri, "unknown keyword " + m.group(2));
+            addTag(tags, tag);
+        }
+        int all = 0;
+        m = DICOM_ATTRIBUTE.matcher(xsl);
+        while (m.find())
+            all++;
+        if (all != refs)
+            return notCacheable(uri, "references to DicomAttribute without literal tag or keyword");
+        int tagOrKeyword = 0;
+        m = TAG_OR_KEYWORD.matcher(xsl);
+        while (m.find())
+            tagOrKeyword++;
+        if (tagOrKeyword != refs)
+            return notCacheable(uri, "references to @tag or @keyword outside of DicomAttribute[...]");
+        if (tags.isEmpty())
+            return notCacheable(uri, "no reference to DicomAttribute with literal tag or keyword");
+        int[] result = new int[tags.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = tags.get(i);
+            if (ElementDictionary.vrOf(result[i], null) == VR.SQ)
+                return notCacheable(uri, "reference to sequence " + TagUtils.toString(result[i]));
+        }
+        LOG.info("Cache results of destination template {} by attributes {}", uri, tagsToString(result));
+        return result;
+    }
+
+    private static void addTag(ArrayList<Integer> tags, int tag) {
+        if (!tags.contains(tag))
+            tags.add(tag);
+    }
+
+    private static int[] notCacheable(String uri, String reason) {
+        LOG.info("Results of destination template {} will not be cached: {}", uri, reason);
+        return NOT_CACHEABLE;
+    }
+
+    private static String tagsToString(int[] tags) {
+        StringBuilder sb = new StringBuilder();
+        for (int tag : tags) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(TagUtils.toString(tag));
+        }
+        return sb.toString();
+    }
+
+    private static String readTemplate(String uri) throws IOException {
+        InputStream in = new URL(StringUtils.replaceSystemProperties(uri).replace('\\', '/')).openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copy(in, out);
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.DataWriter;
+import org.dcm4che3.net.PDVOutputStream;
+import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.util.StreamUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DicomFileUtils {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DicomFileUtils.class);
+
+    /**
+     * Writes a copy of the DICOM file {@code src} with a coerced dataset
+     * header to {@code dst}. Only the header up to the pixel data is encoded;
+     * the pixel data and any trailing elements are spliced unchanged from
+     * {@code src} by {@link FileChannel#transferTo}. Falls back to encoding
+     * the whole dataset if {@code src} has no pixel data, uses the Deflated
+     * Transfer Syntax or is not encoded in the Transfer Syntax of
+     * {@code fmi}, or if the coercion changed elements following the pixel
+     * data.
+     * 
+     * @param attrs
+     *            coerced dataset of {@code src}, read with bulk data
+     *            references
+     * @param orig
+     *            dataset of {@code src} before the coercion
+     */
+    public static void writeCoercedCopy(File src, File dst, Attributes fmi, Attributes attrs, Attributes orig)
+            throws IOException {
+        long pixelDataPos = -1;
+        int pixelDataLength = 0;
+        VR pixelDataVR = null;
+        String tsuid = fmi.getString(Tag.TransferSyntaxUID);
+        if (!UID.DeflatedExplicitVRLittleEndian.equals(tsuid) && equalsTrailingElements(attrs, orig)) {
+            DicomInputStream din = new DicomInputStream(src);
+            try {
+                din.readDataset(-1, Tag.PixelData);
+                if (din.tag() == Tag.PixelData && tsuid.equals(din.getTransferSyntax())) {
+                    pixelDataPos = din.getPosition();
+                    pixelDataVR = din.vr();
+                    pixelDataLength = din.length();
+                }
+            } finally {
+                SafeClose.close(din);
+            }
+        }
+        FileOutputStream fout = new FileOutputStream(dst);
+        DicomOutputStream out = new DicomOutputStream(new BufferedOutputStream(fout), UID.ExplicitVRLittleEndian);
+        try {
+            if (pixelDataPos == -1) {
+                out.writeDataset(fmi, attrs);
+                out.flush();
+            } else {
+                // elements following the pixel data are part of the spliced bytes
+                Attributes header = new Attributes(attrs, tagsOf(attrs, false));
+                out.writeDataset(fmi, header);
+                out.writeHeader(Tag.PixelData, pixelDataVR, pixelDataLength);
+                out.flush();
+                long copied = transferFrom(src, pixelDataPos, fout.getChannel());
+                LOG.debug("Spliced {} bytes of pixel data from {} to {}", new Object[] { copied, src, dst });
+            }
+            fout.getFD().sync();
+        } finally {
+            SafeClose.close(out);
+        }
+    }
+
+    /**
+     * Returns a {@link DataWriter} which sends the dataset of the DICOM file
+     * as stored, skipping its file meta information, without decoding and
+     * re-encoding it. Returns {@code null} if the file has no file meta
+     * information or its Transfer Syntax differs from {@code tsuid}.
+     */
+    public static DataWriter newDatasetWriter(final File file, String tsuid) throws IOException {
+        final long datasetPos;
+        DicomInputStream din = new DicomInputStream(file);
+        try {
+            Attributes fmi = din.readFileMetaInformation();
+            if (fmi == null || !tsuid.equals(fmi.getString(Tag.TransferSyntaxUID)))
+                return null;
+            datasetPos = din.getPosition();
+        } finally {
+            SafeClose.close(din);
+        }
+        return new DataWriter() {
+
+            @Override
+            public void writeTo(PDVOutputStream out, String tsuid) throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    in.getChannel().position(datasetPos);
+                    StreamUtils.copy(in, out);
+                } finally {
+                    SafeClose.close(in);
+                }
+            }
+        };
+    }
+
+    private static boolean isBelowPixelData(int tag) {
+        return (tag & 0xFFFFFFFFL) < Tag.PixelData;
+    }
+
+    /**
+     * Returns the tags of {@code attrs} below the pixel data, or of the pixel
+     * data and following elements if {@code trailing} is {@code true}.
+     */
+    private static int[] tagsOf(Attributes attrs, boolean trailing) {
+        int[] tags = new int[attrs.size()];
+        int n = 0;
+        for (int tag : attrs.tags())
+            if (isBelowPixelData(tag) != trailing)
+                tags[n++] = tag;
+        return Arrays.copyOf(tags, n);
+    }
+
+    private static boolean equalsTrailingElements(Attributes attrs, Attributes orig) {
+        if (attrs == orig)
+            return true;
+
+        int[] tags = tagsOf(attrs, true);
+        if (!Arrays.equals(tags, tagsOf(orig, true)))
+            return false;
+
+        for (int tag : tags)
+            if (tag != Tag.PixelData
+                    && (attrs.getVR(tag) != orig.getVR(tag) || !equalsValue(attrs.getValue(tag), orig.getValue(tag))))
+                return false;
+        return true;
+    }
+
+    private static boolean equalsValue(Object v1, Object v2) {
+        if (v1 == v2)
+            return true;
+        if (v1 instanceof byte[] && v2 instanceof byte[])
+            return Arrays.equals((byte[]) v1, (byte[]) v2);
+        if (v1 instanceof Object[] && v2 instanceof Object[])
+            return Arrays.equals((Object[]) v1, (Object[]) v2);
+        return v1 != null && v1.equals(v2);
+    }
+
+    private static long transferFrom(File src, long pos, FileChannel dst) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileChannel ch = in.getChannel();
+            long size = ch.size();
+            long off = pos;
+            while (off < size)
+                off += ch.transferTo(off, size - off, dst);
+            return size - pos;
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+}
@@ -263,6 +263,18 @@ public class ForwardConnectionUtils {
         return returnList;
     }
 
+    /**
+     * Returns the number of operations the proxy may keep outstanding on a
+     * forward association: the configured maximum, reduced to the maximum
+     * negotiated in the A-ASSOCIATE-AC. The proposed value is taken from the
+     * local connection on connect, so the configured maximum is only enforced
+     * by the caller. Zero stands for no limit by the proxy.
+     */
+    public static int getMaxOpsInvoked(AAssociateAC ac, int maxOpsInvoked) {
+        int negotiated = ac.getMaxOpsInvoked();
+        return maxOpsInvoked == 0 || negotiated == 0 ? maxOpsInvoked : Math.min(negotiated, maxOpsInvoked);
+    }
+
     public static String getMatchingTsuid(Association asInvoked, String tsuid, String cuid) {
         Set<String> tsuids = asInvoked.getTransferSyntaxesFor(cuid);
         //order of preference
@@ -40,14 +40,10 @@ package org.dcm4chee.proxy.utils;
 
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
-import java.util.Iterator;
 import java.util.List;
 
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
-import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 
 import org.dcm4che3.conf.api.ConfigurationException;
@@ -75,6 +71,8 @@ public class ForwardRuleUtils {
     private static final String XSL_PARAMETER_CALLINGAET = "callingAET";
     private static final String XSL_PARAMETER_CALLEDAET = "calledAET";
 
+    private static final DestinationTemplateCache destinationTemplateCache = new DestinationTemplateCache();
+
     public static List<String> getDestinationAETsFromForwardRule(Association as, ForwardRule rule, Attributes data)
             throws ConfigurationException, DicomServiceException {
         ProxyAEExtension proxyAEE = as.getApplicationEntity().getAEExtension(ProxyAEExtension.class);
@@ -90,13 +88,21 @@ public class ForwardRuleUtils {
 
     public static List<String> getDestinationAETsFromTemplate(ProxyAEExtension proxyAEE, String uri, Attributes data, Association as)
             throws ConfigurationException {
+        String callingAET = as != null ? as.getCallingAET() : null;
+        String calledAET = as != null ? as.getCalledAET() : null;
+        String key = destinationTemplateCache.keyOf(uri, data, callingAET, calledAET);
+        if (key != null) {
+            List<String> cached = destinationTemplateCache.get(uri, key);
+            if (cached != null) {
+                LOG.debug("Use cached result {} of template {}", cached, uri);
+                return new ArrayList<String>(cached);
+            }
+        }
         final List<String> result = new ArrayList<String>();
         try {
             ProxyDeviceExtension proxyDevExt = proxyAEE.getApplicationEntity().getDevice().getDeviceExtension(
                     ProxyDeviceExtension.class);
-            Templates templates = proxyDevExt.getTemplates(uri);
-            SAXTransformerFactory transFac = (SAXTransformerFactory) TransformerFactory.newInstance();
-            TransformerHandler handler = transFac.newTransformerHandler(templates);
+            TransformerHandler handler = XSLTUtils.newTransformerHandler(proxyDevExt, uri);
             if (as != null) {
                 Transformer transformer = handler.getTransformer();
                 transformer.setParameter(XSL_PARAMETER_CALLINGAET, as.getCallingAET());
@@ -123,40 +129,26 @@ public class ForwardRuleUtils {
             LOG.error("Parsing template {} returned no result", uri);
             throw new ConfigurationException();
         }
+        if (key != null)
+            destinationTemplateCache.put(uri, key, result);
         return result;
     }
 
+    public static void clearDestinationTemplateCache() {
+        destinationTemplateCache.clear();
+    }
+
     public static List<ForwardRule> filterForwardRulesByCallingAET(ProxyAEExtension proxyAEE, String callingAET) {
-        List<ForwardRule> filterList = new ArrayList<ForwardRule>();
-        for (ForwardRule rule : proxyAEE.getForwardRules()) {
-            List<String> callingAETs = rule.getCallingAETs();
-            if ((callingAETs.isEmpty() || callingAETs.contains(callingAET))
-                    && rule.getReceiveSchedule().isNow(new GregorianCalendar())) {
+        List<ForwardRule> returnList = proxyAEE.getForwardRuleIndex().filterByCallingAET(callingAET,
+                new GregorianCalendar());
+        if (LOG.isDebugEnabled())
+            for (ForwardRule rule : returnList)
                 LOG.debug(
                         "Filter by Calling AET: use forward rule \"{}\" based on i) Calling AET = {} and ii) receive schedule days = {}, hours = {}",
                         new Object[] { rule.getCommonName(), 
                                 rule.getCallingAETs().isEmpty() ? "<EMPTY>" : rule.getCallingAETs(), 
                                 rule.getReceiveSchedule().getDays(),
                                 rule.getReceiveSchedule().getHours() });
-                filterList.add(rule);
-            }
-        }
-        List<ForwardRule> returnList = new ArrayList<ForwardRule>(filterList);
-        for (Iterator<ForwardRule> iterator = filterList.iterator(); iterator.hasNext();) {
-            ForwardRule rule = iterator.next();
-            for (ForwardRule fwr : filterList) {
-                if (!returnList.contains(fwr) || rule.getCommonName().equals(fwr.getCommonName()))
-                    continue;
-                if (rule.getCallingAETs().isEmpty()
-                        && !fwr.getCallingAETs().isEmpty()
-                        && fwr.getCallingAETs().contains(callingAET)) {
-                    LOG.debug(
-                            "Filter by Calling AET: remove forward rule \"{}\" with Calling AET = <EMPTY> due to rule \"{}\" with matching Calling AET = {}",
-                            new Object[] { rule.getCommonName(), fwr.getCommonName(), fwr.getCallingAETs() });
-                    returnList.remove(rule);
-                }
-            }
-        }
         return returnList;
     }
 
@@ -176,15 +168,15 @@ public class ForwardRuleUtils {
                 filterList.add(rule);
             }
         }
-        List<ForwardRule> returnList = new ArrayList<ForwardRule>(filterList);
+        boolean[] removed = new boolean[filterList.size()];
         for (int i = 0; i < filterList.size(); i++) {
             ForwardRule rule1 = filterList.get(i);
-            if (!returnList.contains(rule1))
+            if (removed[i])
                 continue;
 
             for (int j = i + 1; j < filterList.size(); j++) {
                 ForwardRule rule2 = filterList.get(j);
-                if (!returnList.contains(rule2))
+                if (removed[j])
                     continue;
 
                 if (rule1.getDimse().isEmpty() && !rule2.getDimse().isEmpty()) {
@@ -194,7 +186,7 @@ public class ForwardRuleUtils {
                                     rule1.getCommonName(),
                                     rule2.getCommonName(),
                                     rule2.getDimse()});
-                    returnList.remove(rule1);
+                    removed[i] = true;
                     break;
                 }
                 if (rule1.getSopClasses().isEmpty() && !rule2.getSopClasses().isEmpty()) {
@@ -204,7 +196,7 @@ public class ForwardRuleUtils {
                                     rule1.getCommonName(),
                                     rule2.getCommonName(),
                                     rule2.getSopClasses()});
-                    returnList.remove(rule1);
+                    removed[i] = true;
                     break;
                 }
                 if (rule2.getDimse().isEmpty() && !rule1.getDimse().isEmpty()) {
@@ -214,7 +206,7 @@ public class ForwardRuleUtils {
                                     rule2.getCommonName(),
                                     rule1.getCommonName(),
                                     rule1.getDimse()});
-                    returnList.remove(rule2);
+                    removed[j] = true;
                     continue;
                 }
                 if (rule2.getSopClasses().isEmpty() && !rule1.getSopClasses().isEmpty()) {
@@ -224,11 +216,15 @@ public class ForwardRuleUtils {
                                     rule2.getCommonName(),
                                     rule1.getCommonName(),
                                     rule1.getSopClasses()});
-                    returnList.remove(rule2);
+                    removed[j] = true;
                     continue;
                 }
             }
         }
+        List<ForwardRule> returnList = new ArrayList<ForwardRule>(filterList.size());
+        for (int i = 0; i < filterList.size(); i++)
+            if (!removed[i])
+                returnList.add(filterList.get(i));
         return returnList;
     }
 
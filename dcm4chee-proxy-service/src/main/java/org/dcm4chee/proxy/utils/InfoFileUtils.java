@@ -58,23 +58,20 @@ public class InfoFileUtils {
     private static final Logger LOG = LoggerFactory.getLogger(InfoFileUtils.class);
 
     public static Properties getFileInfoProperties(ProxyAEExtension proxyAEE, File file) throws IOException {
-        String[] fileList = file.getParentFile().list();
-        String infoFileName =null;
-        if(fileList.length >0)
-        {
-            for(String f:  fileList)
-            if(f.endsWith(".info") && file.getName().substring(0,(file.getName()).indexOf(".")).compareTo(f.substring(0,f.indexOf(".")))==0)
-            {
-                infoFileName = f;
-                break;
-                }
-        }
-        else
-        {
-            throw new FileNotFoundException("Unable to find information file");
-        }
-//        String infoFileName = file.getName().substring(0, file.getName().lastIndexOf('.')) + ".info";
-        return getPropertiesFromInfoFile(proxyAEE, file.getParent(), infoFileName);
+        return getPropertiesFromInfoFile(proxyAEE, file.getParent(), getInfoFileName(file));
+    }
+
+    /**
+     * Returns the name of the info file of a spool file. Spool files keep the
+     * name prefix of their info file while their suffixes change with the
+     * forwarding state (e.g. dcm123.dcm.snd or dcm123.conn2 belong to
+     * dcm123.info), so the info file name can be derived without listing the
+     * spool directory.
+     */
+    public static String getInfoFileName(File file) {
+        String fileName = file.getName();
+        int endOfPrefix = fileName.indexOf('.');
+        return (endOfPrefix == -1 ? fileName : fileName.substring(0, endOfPrefix)) + ".info";
     }
 
     public static Properties getPropertiesFromInfoFile(ProxyAEExtension proxyAEE, String path, String infoFileName)
@@ -87,7 +84,8 @@ public class InfoFileUtils {
             inStream = new FileInputStream(infoFile);
             prop.load(inStream);
         } finally {
-            inStream.close();
+            if (inStream != null)
+                inStream.close();
         }
         return prop;
     }
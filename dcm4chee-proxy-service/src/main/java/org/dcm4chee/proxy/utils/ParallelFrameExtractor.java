@@ -0,0 +1,155 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.utils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.emf.MultiframeExtractor;
+import org.dcm4che3.io.DicomEncodingOptions;
+
+/**
+ * Extracts the frames of an enhanced multi-frame object on a fork/join pool
+ * and hands them out in descending frame order, the order in which they are
+ * forwarded. At most two frames per worker of the pool are extracted ahead of
+ * the consumer, which bounds the memory used for a conversion.
+ * 
+ * The workers only read the source data set, but dcm4che decodes string and
+ * numeric values on first access and stores the decoded value back. The last
+ * frame is therefore extracted on the calling thread before any worker
+ * starts: extracting a frame reads the same attributes of the source data set
+ * for every frame, except the item of the Per-frame Functional Groups
+ * Sequence of that frame, which is read by one worker only. Each extraction
+ * uses its own {@link MultiframeExtractor}.
+ * 
+ * If the pool is shut down while frames are extracted, the remaining frames
+ * are extracted on the calling thread.
+ */
+public class ParallelFrameExtractor {
+
+    public static class Frame {
+        public final int frameNumber;
+        public final Attributes attrs;
+        public final long length;
+
+        Frame(int frameNumber, Attributes attrs, long length) {
+            this.frameNumber = frameNumber;
+            this.attrs = attrs;
+            this.length = length;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Attributes src;
+    private final boolean calcLength;
+    private final ArrayDeque<ForkJoinTask<Frame>> pending = new ArrayDeque<ForkJoinTask<Frame>>();
+    private final int maxPending;
+    private int nextFrameNumber;
+    private Frame first;
+
+    /**
+     * @param calcLength
+     *            if the encoded length of each frame shall be calculated,
+     *            otherwise {@link Frame#length} is -1
+     */
+    public ParallelFrameExtractor(ForkJoinPool pool, Attributes src, boolean calcLength) {
+        this.pool = pool;
+        this.src = src;
+        this.calcLength = calcLength;
+        this.maxPending = pool.getParallelism() * 2;
+        this.nextFrameNumber = src.getInt(Tag.NumberOfFrames, 1) - 1;
+        this.first = extract(nextFrameNumber--);
+    }
+
+    public boolean hasNext() {
+        return first != null || !pending.isEmpty() || nextFrameNumber >= 0;
+    }
+
+    public Frame next() {
+        if (first != null) {
+            Frame frame = first;
+            first = null;
+            submit();
+            return frame;
+        }
+        submit();
+        if (pending.isEmpty())
+            return extract(nextFrameNumber--);
+        Frame frame = pending.poll().join();
+        submit();
+        return frame;
+    }
+
+    /**
+     * Cancels extraction of frames which were not handed out yet.
+     */
+    public void cancel() {
+        for (ForkJoinTask<Frame> task : pending)
+            task.cancel(false);
+        pending.clear();
+        nextFrameNumber = -1;
+    }
+
+    private void submit() {
+        while (pending.size() < maxPending && nextFrameNumber >= 0) {
+            final int frameNumber = nextFrameNumber;
+            try {
+                pending.add(pool.submit(new Callable<Frame>() {
+
+                    @Override
+                    public Frame call() {
+                        return extract(frameNumber);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+            nextFrameNumber--;
+        }
+    }
+
+    private Frame extract(int frameNumber) {
+        Attributes attrs = new MultiframeExtractor().extract(src, frameNumber);
+        return new Frame(frameNumber, attrs, calcLength ? attrs.calcLength(DicomEncodingOptions.DEFAULT, true) : -1);
+    }
+}
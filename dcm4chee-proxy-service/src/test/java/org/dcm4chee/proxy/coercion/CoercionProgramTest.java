@@ -0,0 +1,100 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.coercion;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CoercionProgramTest {
+
+    @Test
+    public void testApply() {
+        Attributes attrs = new Attributes();
+        attrs.setString(Tag.PatientID, VR.LO, "4711");
+        attrs.setString(Tag.Modality, VR.CS, "CT");
+        attrs.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        attrs.setString(Tag.AccessionNumber, VR.SH, "A-1");
+        attrs.setString(0x00091010, VR.LO, "private");
+
+        CoercionProgram.compile("prefix(PatientID,\"ACME-\"); set(InstitutionName, \"ACME, Inc.\");"
+                + "remove(00091010); copy(AccessionNumber,StudyID); replace(AccessionNumber,\"-\",\"\");"
+                + "if(Modality,\"MR\") set(StationName,MR1); if(Modality,\"CT|MR\") suffix(Modality,X);"
+                + "hashuid(StudyInstanceUID)").apply(attrs);
+
+        Assert.assertEquals("ACME-4711", attrs.getString(Tag.PatientID));
+        Assert.assertEquals("ACME, Inc.", attrs.getString(Tag.InstitutionName));
+        Assert.assertFalse(attrs.contains(0x00091010));
+        Assert.assertEquals("A-1", attrs.getString(Tag.StudyID));
+        Assert.assertEquals("A1", attrs.getString(Tag.AccessionNumber));
+        Assert.assertNull(attrs.getString(Tag.StationName));
+        Assert.assertEquals("CTX", attrs.getString(Tag.Modality));
+        Assert.assertEquals(CoercionProgram.hashUID("1.2.3"), attrs.getString(Tag.StudyInstanceUID));
+        Assert.assertTrue(attrs.getString(Tag.StudyInstanceUID).startsWith("2.25."));
+    }
+
+    @Test
+    public void testPrivateAttribute() {
+        Attributes attrs = new Attributes();
+        attrs.setString(0x00091010, VR.LO, "private");
+
+        CoercionProgram.compile("prefix(00091010:SH,\"ACME-\"); set(00091012:LO,X); remove(00091014)")
+                .apply(attrs);
+
+        Assert.assertEquals("ACME-private", attrs.getString(0x00091010));
+        Assert.assertEquals(VR.LO, attrs.getVR(0x00091010));
+        Assert.assertEquals(VR.LO, attrs.getVR(0x00091012));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrivateAttributeWithoutVR() {
+        CoercionProgram.compile("set(00091010,X)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCopyToPrivateAttributeWithoutVR() {
+        CoercionProgram.compile("copy(PatientID,00091010)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperation() {
+        CoercionProgram.compile("rename(PatientID,OtherPatientIDs)");
+    }
+}
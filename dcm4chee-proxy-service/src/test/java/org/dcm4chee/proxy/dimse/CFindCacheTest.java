@@ -0,0 +1,141 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.dimse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CFindCacheTest {
+
+    private static final String CUID = UID.StudyRootQueryRetrieveInformationModelFIND;
+
+    private static Attributes keys(String patientID, String studyIUID) {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setString(Tag.PatientID, VR.LO, patientID);
+        keys.setString(Tag.StudyInstanceUID, VR.UI, studyIUID);
+        return keys;
+    }
+
+    private static List<Attributes> matches(int n) {
+        return Collections.nCopies(n, new Attributes());
+    }
+
+    private static String keyOf(String calledAET, Attributes keys) {
+        return CFindCache.keyOf("SCU", calledAET, CUID, Arrays.asList("ARCHIVE", "BACKUP"), keys);
+    }
+
+    @Test
+    public void testKeyOf() {
+        Attributes keys = keys("4711", "1.2.3");
+        Attributes sameKeys = new Attributes();
+        sameKeys.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+        sameKeys.setString(Tag.PatientID, VR.LO, "4711");
+        sameKeys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+
+        Assert.assertEquals(keyOf("PROXY", keys), keyOf("PROXY", sameKeys));
+        Assert.assertEquals(keyOf("PROXY", keys),
+                CFindCache.keyOf("SCU", "PROXY", CUID, Arrays.asList("BACKUP", "ARCHIVE"), keys));
+        Assert.assertFalse(keyOf("PROXY", keys).equals(keyOf("PROXY2", keys)));
+        Assert.assertFalse(keyOf("PROXY", keys).equals(keyOf("PROXY", keys("4712", "1.2.3"))));
+
+        keys.setBytes(Tag.PixelData, VR.OB, new byte[] { 0 });
+        Assert.assertNull(keyOf("PROXY", keys));
+    }
+
+    @Test
+    public void testInvalidate() {
+        CFindCache cache = new CFindCache();
+        Attributes keys1 = keys("4711", "1.2.3");
+        Attributes keys2 = keys("4712", "1.2.4");
+        Attributes keys3 = keys("*", null);
+        String key1 = keyOf("PROXY", keys1);
+        String key2 = keyOf("PROXY", keys2);
+        String key3 = keyOf("PROXY", keys3);
+        cache.put(key1, CUID, keys1, matches(1), 60, 10);
+        cache.put(key2, CUID, keys2, matches(1), 60, 10);
+        cache.put(key3, CUID, keys3, matches(2), 60, 10);
+
+        cache.invalidate("4711", "1.2.3", true);
+        Assert.assertNotNull(cache.get(key1));
+
+        cache.invalidate("4711", "1.2.3", false);
+        Assert.assertNull(cache.get(key1));
+        Assert.assertNotNull(cache.get(key2));
+        Assert.assertNull(cache.get(key3));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        CFindCache cache = new CFindCache();
+        Attributes keys1 = keys("1", "1.1");
+        Attributes keys2 = keys("2", "1.2");
+        Attributes keys3 = keys("3", "1.3");
+        Attributes keys4 = keys("4", "1.4");
+        String key1 = keyOf("PROXY", keys1);
+        String key2 = keyOf("PROXY", keys2);
+        String key3 = keyOf("PROXY", keys3);
+        String key4 = keyOf("PROXY", keys4);
+        cache.put(key1, CUID, keys1, matches(2), 60, 5);
+        cache.put(key2, CUID, keys2, matches(2), 60, 5);
+        Assert.assertNotNull(cache.get(key1));
+
+        cache.put(key3, CUID, keys3, matches(2), 60, 5);
+        Assert.assertNull(cache.get(key2));
+        Assert.assertNotNull(cache.get(key1));
+        Assert.assertNotNull(cache.get(key3));
+
+        // replacing and invalidating entries releases their matches
+        cache.put(key1, CUID, keys1, matches(1), 60, 5);
+        cache.invalidate("3", null, false);
+        cache.put(key4, CUID, keys4, matches(4), 60, 5);
+        Assert.assertNotNull(cache.get(key1));
+        Assert.assertNotNull(cache.get(key4));
+
+        cache.put(key2, CUID, keys2, matches(6), 60, 5);
+        Assert.assertNull(cache.get(key2));
+    }
+}
@@ -0,0 +1,85 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+package org.dcm4chee.proxy.dimse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UIDHashSetTest {
+
+    @Test
+    public void testAdd() {
+        UIDHashSet set = new UIDHashSet();
+        Assert.assertTrue(set.add("1.2.3"));
+        Assert.assertTrue(set.add("1.2.4"));
+        Assert.assertFalse(set.add("1.2.3"));
+        Assert.assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testRehash() {
+        UIDHashSet set = new UIDHashSet();
+        for (int i = 0; i < 1000; i++)
+            Assert.assertTrue(set.add("1.2.40.0.13.1." + i));
+        Assert.assertEquals(1000, set.size());
+        for (int i = 0; i < 1000; i++)
+            Assert.assertFalse(set.add("1.2.40.0.13.1." + i));
+        Assert.assertEquals(1000, set.size());
+    }
+
+    @Test
+    public void testCollidingSlots() {
+        UIDHashSet set = new UIDHashSet();
+        // same slot in a table of 64 entries
+        Assert.assertTrue(set.add(1L));
+        Assert.assertTrue(set.add(65L));
+        Assert.assertTrue(set.add(129L));
+        Assert.assertFalse(set.add(65L));
+        Assert.assertFalse(set.add(129L));
+        Assert.assertEquals(3, set.size());
+    }
+
+    @Test
+    public void testZeroHash() {
+        UIDHashSet set = new UIDHashSet();
+        Assert.assertTrue(set.add(0L));
+        Assert.assertFalse(set.add(0L));
+        Assert.assertTrue(set.add(1L));
+        Assert.assertEquals(2, set.size());
+    }
+}
@@ -0,0 +1,97 @@
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is part of dcm4che, an implementation of DICOM(TM) in
+ * Java(TM), hosted at https://github.com/dcm4che.
+ *
+ * The Initial Developer of the Original Code is
+ * Agfa Healthcare.
+ * Portions created by the Initial Developer are Copyright (C) 2011
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ * See @authors listed below
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+package org.dcm4chee.proxy.utils;
+
+import org.dcm4che3.data.Tag;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DestinationTemplateCacheTest {
+
+    private static final String HEADER = "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\""
+            + " version=\"1.0\"><xsl:template match=\"/NativeDicomModel\"><Destinations>";
+    private static final String FOOTER = "</Destinations></xsl:template></xsl:stylesheet>";
+
+    private static int[] inferTags(String body) {
+        return DestinationTemplateCache.inferTags("test.xsl", HEADER + body + FOOTER);
+    }
+
+    @Test
+    public void testInferTags() {
+        int[] tags = inferTags("<xsl:if test=\"DicomAttribute[@tag='00080060']/Value='CT'\">"
+                + "<Destination aet=\"CT_ARCHIVE\"/></xsl:if>"
+                + "<xsl:if test=\"DicomAttribute[@keyword='PatientID']/Value\">"
+                + "<Destination aet=\"{DicomAttribute[@tag='00080060']/Value}\"/></xsl:if>");
+        Assert.assertArrayEquals(new int[] { Tag.Modality, Tag.PatientID }, tags);
+    }
+
+    @Test
+    public void testInferTagsWithoutReference() {
+        Assert.assertEquals(0, inferTags("<Destination aet=\"ARCHIVE\"/>").length);
+    }
+
+    @Test
+    public void testInferTagsWithGenericNode() {
+        Assert.assertEquals(0, inferTags("<xsl:if test=\"*[@tag='00080060']/Value='CT'\">"
+                + "<Destination aet=\"CT_ARCHIVE\"/></xsl:if>").length);
+        Assert.assertEquals(0, inferTags("<xsl:if test=\"DicomAttribute[@tag='00080060']/Value='CT'\">"
+                + "<Destination aet=\"{*[@keyword='StationName']/Value}\"/></xsl:if>").length);
+    }
+
+    @Test
+    public void testInferTagsWithIteration() {
+        Assert.assertEquals(0, inferTags("<xsl:for-each select=\"DicomAttribute\">"
+                + "<Destination aet=\"{Value}\"/></xsl:for-each>").length);
+    }
+
+    @Test
+    public void testInferTagsWithSequence() {
+        Assert.assertEquals(0, inferTags("<Destination aet=\"{DicomAttribute[@keyword='RequestAttributesSequence']"
+                + "/Item/DicomAttribute[@tag='00400007']/Value}\"/>").length);
+    }
+
+    @Test
+    public void testInferTagsWithExternalReferences() {
+        String ref = "<Destination aet=\"{DicomAttribute[@tag='00080060']/Value}\"/>";
+        Assert.assertEquals(0, inferTags("<xsl:include href=\"common.xsl\"/>" + ref).length);
+        Assert.assertEquals(0, inferTags("<xsl:import href=\"common.xsl\"/>" + ref).length);
+        Assert.assertEquals(0, inferTags(ref + "<xsl:value-of select=\"document('aets.xml')/aet\"/>").length);
+        Assert.assertEquals(0, inferTags(ref + "<xsl:value-of select=\"key('aet', 'CT')\"/>").length);
+    }
+}